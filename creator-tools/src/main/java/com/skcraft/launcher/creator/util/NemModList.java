@@ -36,7 +36,6 @@ public class NemModList {
         List<ModEntry> mods = HttpRequest.get(HttpRequest.url("https://bot.notenoughmods.com/" + version + ".json"))
                 .execute()
                 .expectResponseCode(200)
-                .returnContent()
                 .asJson(new TypeReference<List<ModEntry>>() {});
 
         Map<String, ModEntry> index = Maps.newHashMap();
@@ -0,0 +1,59 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.bootstrap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that caps the rate of the transfers sharing it.
+ */
+public class BandwidthLimiter {
+
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final long MIN_CAPACITY = 16 * 1024;
+
+    private final long rate;
+    private final long capacity;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Create a new limiter.
+     *
+     * @param bytesPerSecond the rate in bytes per second
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be positive");
+        }
+        this.rate = bytesPerSecond;
+        this.capacity = Math.max(MIN_CAPACITY, bytesPerSecond * BURST_NANOS / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Wait until the given number of bytes may be transferred.
+     *
+     * @param bytes the number of bytes
+     * @throws InterruptedException on interruption
+     */
+    public synchronized void acquire(int bytes) throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / (double) TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+
+            if (tokens >= Math.min(bytes, capacity)) {
+                tokens -= bytes;
+                return;
+            }
+
+            double needed = Math.min(bytes, capacity) - tokens;
+            TimeUnit.NANOSECONDS.timedWait(this, Math.max(1, (long) (needed * TimeUnit.SECONDS.toNanos(1) / rate)));
+        }
+    }
+
+}
@@ -95,7 +95,7 @@ public class Downloader implements Runnable, ProgressObservable {
 
             log.info("Downloading " + url + " to " + tempFile.getAbsolutePath());
 
-            httpRequest = HttpRequest.get(url);
+            httpRequest = HttpRequest.get(url).limit(createLimiter());
             httpRequest
                     .execute()
                     .expectResponseCode(200)
@@ -119,6 +119,22 @@ public class Downloader implements Runnable, ProgressObservable {
         bootstrap.launchExisting(binaries, false);
     }
 
+    private BandwidthLimiter createLimiter() {
+        String value = bootstrap.getProperties().getProperty("downloadRateLimit");
+        if (value != null) {
+            try {
+                long rate = Long.parseLong(value.trim());
+                if (rate > 0) {
+                    log.info("Limiting download rate to " + rate + " KB/s");
+                    return new BandwidthLimiter(rate * 1024);
+                }
+            } catch (NumberFormatException e) {
+                log.log(Level.WARNING, "Invalid downloadRateLimit: " + value);
+            }
+        }
+        return null;
+    }
+
     public void cancel() {
         thread.interrupt();
     }
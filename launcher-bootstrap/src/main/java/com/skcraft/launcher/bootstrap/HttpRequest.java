@@ -37,6 +37,7 @@ public class HttpRequest implements Closeable, ProgressObservable {
     private byte[] body;
     private HttpURLConnection conn;
     private InputStream inputStream;
+    private BandwidthLimiter limiter;
 
     private long contentLength = -1;
     private long readBytes = 0;
@@ -64,6 +65,18 @@ public class HttpRequest implements Closeable, ProgressObservable {
         return this;
     }
 
+    /**
+     * Throttle the body saved by {@link #saveContent(OutputStream)} with the
+     * given limiter.
+     *
+     * @param limiter the limiter, or null for no limit
+     * @return this object
+     */
+    public HttpRequest limit(BandwidthLimiter limiter) {
+        this.limiter = limiter;
+        return this;
+    }
+
     /**
      * Add a header.
      *
@@ -188,10 +201,11 @@ public class HttpRequest implements Closeable, ProgressObservable {
 
         try {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            int b = 0;
-            while ((b = inputStream.read()) != -1) {
+            byte[] data = new byte[READ_BUFFER_SIZE];
+            int len;
+            while ((len = inputStream.read(data, 0, READ_BUFFER_SIZE)) != -1) {
+                bos.write(data, 0, len);
                 checkInterrupted();
-                bos.write(b);
             }
             return new BufferedResponse(bos.toByteArray());
         } finally {
@@ -252,6 +266,9 @@ public class HttpRequest implements Closeable, ProgressObservable {
             byte[] data = new byte[READ_BUFFER_SIZE];
             int len = 0;
             while ((len = bis.read(data, 0, READ_BUFFER_SIZE)) >= 0) {
+                if (limiter != null) {
+                    limiter.acquire(len);
+                }
                 out.write(data, 0, len);
                 readBytes += len;
                 checkInterrupted();
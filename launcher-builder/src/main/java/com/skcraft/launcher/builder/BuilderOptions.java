@@ -59,6 +59,8 @@ public class BuilderOptions {
     private File filesDir;
     @Parameter(names = "--loaders")
     private File loadersDir;
+    @Parameter(names = "--previous-manifest")
+    private File previousManifestPath;
 
     // Output paths
     @Parameter(names = "--objects-dest")
@@ -10,8 +10,10 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
@@ -23,18 +25,27 @@ import com.skcraft.launcher.LauncherUtils;
 import com.skcraft.launcher.model.loader.InstallProfile;
 import com.skcraft.launcher.model.minecraft.Library;
 import com.skcraft.launcher.model.minecraft.VersionManifest;
+import com.skcraft.launcher.model.modpack.DirectoryHashes;
+import com.skcraft.launcher.model.modpack.FileDelta;
+import com.skcraft.launcher.model.modpack.FileInstall;
 import com.skcraft.launcher.model.modpack.Manifest;
+import com.skcraft.launcher.model.modpack.ManifestDiff;
+import com.skcraft.launcher.model.modpack.ManifestEntry;
+import com.skcraft.launcher.util.BinaryDelta;
 import com.skcraft.launcher.util.Environment;
 import com.skcraft.launcher.util.HttpRequest;
 import com.skcraft.launcher.util.SimpleLogFormatter;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.java.Log;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
 
 import java.io.*;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
@@ -53,6 +64,9 @@ import static com.skcraft.launcher.util.HttpRequest.url;
 public class PackageBuilder {
 
     private static final Pattern TWEAK_CLASS_ARG = Pattern.compile("--tweakClass\\s+([^\\s]+)");
+    private static final long MIN_DELTA_FILE_SIZE = 64 * 1024;
+    private static final double MAX_DELTA_RATIO = 0.5;
+    private static final Compressor MANIFEST_COMPRESSOR = new Compressor("gz", CompressorStreamFactory.GZIP);
 
     private final Properties properties;
     private final ObjectMapper mapper;
@@ -114,6 +128,73 @@ public class PackageBuilder {
         collector.walk(dir);
     }
 
+    /**
+     * Create binary deltas from the files of a previous version of the
+     * package to the files that have changed since, so that launchers with
+     * the previous version only have to download the difference.
+     *
+     * @param previousManifestPath the manifest of the previous version
+     * @param objectsDir the objects directory, which must still have the
+     *                   objects of the previous version
+     * @throws IOException on I/O error
+     */
+    public void addDeltas(File previousManifestPath, File objectsDir) throws IOException {
+        logSection("Creating deltas from the previous version...");
+
+        if (!previousManifestPath.exists()) {
+            log.warning("The previous manifest at " + previousManifestPath.getAbsolutePath() + " does not exist");
+            return;
+        }
+
+        Manifest previous = read(previousManifestPath, Manifest.class);
+        Map<String, FileInstall> previousFiles = new HashMap<String, FileInstall>();
+        for (ManifestEntry entry : previous.getTasks()) {
+            if (entry instanceof FileInstall && ((FileInstall) entry).getHash() != null) {
+                previousFiles.put(((FileInstall) entry).getTargetPath(), (FileInstall) entry);
+            }
+        }
+
+        for (ManifestEntry entry : manifest.getTasks()) {
+            if (!(entry instanceof FileInstall)) {
+                continue;
+            }
+
+            FileInstall file = (FileInstall) entry;
+            FileInstall old = previousFiles.get(file.getTargetPath());
+            if (old == null || file.getHash() == null || old.getHash().equalsIgnoreCase(file.getHash())) {
+                continue;
+            }
+
+            File base = new File(objectsDir, old.getLocation());
+            File target = new File(objectsDir, file.getLocation());
+            if (!base.isFile() || !target.isFile() || target.length() < MIN_DELTA_FILE_SIZE) {
+                continue;
+            }
+
+            String location = "deltas/" + file.getHash().substring(0, 2) + "/" + old.getHash() + "_" + file.getHash();
+            File deltaPath = new File(objectsDir, location);
+            if (!deltaPath.exists()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                BinaryDelta.create(base, target, out);
+                if (out.size() > target.length() * MAX_DELTA_RATIO) {
+                    log.info("Not using a delta for " + file.getTargetPath() + " because it would save too little");
+                    continue;
+                }
+                Files.createParentDirs(deltaPath);
+                Files.write(out.toByteArray(), deltaPath);
+            } else if (deltaPath.length() > target.length() * MAX_DELTA_RATIO) {
+                continue;
+            }
+
+            FileDelta delta = new FileDelta();
+            delta.setFrom(old.getHash());
+            delta.setLocation(location);
+            delta.setSize(deltaPath.length());
+            file.setDeltas(Lists.newArrayList(delta));
+            log.info(String.format("Added a %d byte delta for %s (%d bytes)", deltaPath.length(), file.getTargetPath(), target.length()));
+        }
+    }
+
     public void addLoaders(File dir, File librariesDir) {
         logSection("Checking for mod loaders to install...");
 
@@ -307,7 +388,6 @@ public class PackageBuilder {
                     .get(url)
                     .execute()
                     .expectResponseCode(200)
-                    .returnContent()
                     .asJson(VersionManifest.class));
         }
     }
@@ -320,11 +400,72 @@ public class PackageBuilder {
         if (versionManifest != null) {
             versionManifest.setId(manifest.getGameVersion());
         }
+        manifest.setDirectoryHashes(DirectoryHashes.compute(manifest.getTasks()));
         validateManifest();
         path.getAbsoluteFile().getParentFile().mkdirs();
         writer.writeValue(path, manifest);
 
-        log.info("Wrote manifest to " + path.getAbsolutePath());
+        // Launchers try the compressed copy first
+        File compressedPath = new File(MANIFEST_COMPRESSOR.transformPathname(path.getPath()));
+        Closer closer = Closer.create();
+        try {
+            OutputStream out = closer.register(new FileOutputStream(compressedPath));
+            out = closer.register(MANIFEST_COMPRESSOR.createOutputStream(out));
+            Files.copy(path, out);
+        } finally {
+            closer.close();
+        }
+
+        log.info(String.format("Wrote manifest to %s (%d bytes, %d compressed)",
+                path.getAbsolutePath(), path.length(), compressedPath.length()));
+    }
+
+    /**
+     * Write a diff from a previous version of the manifest to the manifest
+     * that was just written, so that launchers with the previous version
+     * only have to download the entries that changed.
+     *
+     * @param previousManifestPath the manifest of the previous version
+     * @param path the path the manifest was written to
+     * @throws IOException on I/O error
+     */
+    public void writeManifestDiff(@NonNull File previousManifestPath, @NonNull File path) throws IOException {
+        logSection("Writing manifest diff...");
+
+        if (!previousManifestPath.exists()) {
+            log.warning("The previous manifest at " + previousManifestPath.getAbsolutePath() + " does not exist");
+            return;
+        }
+
+        JsonNode base = mapper.readTree(previousManifestPath);
+        JsonNode current = mapper.readTree(path);
+        ManifestDiff diff = null;
+        if (base instanceof ObjectNode && current instanceof ObjectNode) {
+            diff = ManifestDiff.create((ObjectNode) base, (ObjectNode) current);
+        }
+
+        if (diff == null) {
+            log.warning("Can't create a diff from the previous manifest because it has no version or has entries without a path");
+            return;
+        } else if (diff.getBaseVersion().equals(manifest.getVersion())) {
+            log.warning("Not creating a diff because the previous manifest has the same version");
+            return;
+        }
+
+        File diffPath = new File(path.getAbsoluteFile().getParentFile(),
+                path.getName() + ManifestDiff.getSuffix(diff.getBaseVersion()));
+        Closer closer = Closer.create();
+        try {
+            OutputStream out = closer.register(new FileOutputStream(diffPath));
+            out = closer.register(MANIFEST_COMPRESSOR.createOutputStream(out));
+            mapper.writeValue(out, diff);
+        } finally {
+            closer.close();
+        }
+
+        log.info(String.format("Wrote a diff from %s with %d changed and %d removed entries to %s (%d bytes)",
+                diff.getBaseVersion(), diff.getManifest().path("tasks").size(), diff.getRemoved().size(),
+                diffPath.getAbsolutePath(), diffPath.length()));
     }
 
     private static BuilderOptions parseArgs(String[] args) {
@@ -394,9 +535,15 @@ public class PackageBuilder {
 
         builder.scan(options.getFilesDir());
         builder.addFiles(options.getFilesDir(), options.getObjectsDir());
+        if (options.getPreviousManifestPath() != null) {
+            builder.addDeltas(options.getPreviousManifestPath(), options.getObjectsDir());
+        }
         builder.addLoaders(options.getLoadersDir(), options.getLibrariesDir());
         builder.downloadLibraries(options.getLibrariesDir());
         builder.writeManifest(options.getManifestPath());
+        if (options.getPreviousManifestPath() != null) {
+            builder.writeManifestDiff(options.getPreviousManifestPath(), options.getManifestPath());
+        }
 
         logSection("Done");
 
@@ -6,19 +6,23 @@
 
 package com.skcraft.launcher;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import com.skcraft.concurrency.ProgressObservable;
 import com.skcraft.launcher.model.minecraft.Asset;
 import com.skcraft.launcher.model.minecraft.AssetsIndex;
 import com.skcraft.launcher.model.minecraft.VersionManifest;
 import com.skcraft.launcher.persistence.Persistence;
+import com.skcraft.launcher.util.MorePaths;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.java.Log;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
+import java.util.*;
 import java.util.logging.Level;
 
 import static com.skcraft.launcher.util.SharedLocale.tr;
@@ -31,8 +35,11 @@ import static com.skcraft.launcher.util.SharedLocale.tr;
 @Log
 public class AssetsRoot {
 
+    private static final int HASH_LENGTH = 40;
+
     @Getter
     private final File dir;
+    private Set<String> present;
 
     /**
      * Create a new instance.
@@ -50,7 +57,17 @@ public class AssetsRoot {
      * @return the file, which may not exist
      */
     public File getIndexPath(VersionManifest versionManifest) {
-        return new File(dir, "indexes/" + versionManifest.getAssetsIndex() + ".json");
+        return getIndexPath(versionManifest.getAssetsIndex());
+    }
+
+    /**
+     * Get the path to the index .json file for an assets index.
+     *
+     * @param indexId the ID of the index
+     * @return the file, which may not exist
+     */
+    public File getIndexPath(String indexId) {
+        return new File(dir, "indexes/" + indexId + ".json");
     }
 
     /**
@@ -64,6 +81,89 @@ public class AssetsRoot {
         return new File(dir, "objects/" + hash.substring(0, 2) + "/" + hash);
     }
 
+    /**
+     * Check whether the object for the given asset is known to be present.
+     * Only the list of present objects is consulted, so the object itself
+     * is not touched. Objects that go missing are dropped from the list when
+     * the virtual tree is built from them.
+     *
+     * @param asset the asset
+     * @return true if the object is known to be present
+     */
+    public synchronized boolean isKnownPresent(@NonNull Asset asset) {
+        return getPresent().contains(asset.getHash());
+    }
+
+    /**
+     * Record that the objects with the given hashes are present.
+     *
+     * @param hashes the hashes
+     */
+    public synchronized void markPresent(@NonNull Collection<String> hashes) {
+        Set<String> present = getPresent();
+        List<String> added = new ArrayList<String>();
+        for (String hash : hashes) {
+            if (present.add(hash)) {
+                added.add(hash);
+            }
+        }
+
+        if (!added.isEmpty()) {
+            try {
+                File path = getPresentListPath();
+                path.getParentFile().mkdirs();
+                Files.append(Joiner.on('\n').join(added) + "\n", path, Charsets.UTF_8);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to update the list of present assets", e);
+            }
+        }
+    }
+
+    /**
+     * Record that the object with the given hash has gone missing.
+     *
+     * @param hash the hash
+     */
+    public synchronized void markMissing(@NonNull String hash) {
+        if (getPresent().remove(hash)) {
+            savePresent();
+        }
+    }
+
+    private void savePresent() {
+        try {
+            File path = getPresentListPath();
+            path.getParentFile().mkdirs();
+            Files.write(Joiner.on('\n').join(present) + "\n", path, Charsets.UTF_8);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to update the list of present assets", e);
+        }
+    }
+
+    private Set<String> getPresent() {
+        if (present == null) {
+            present = new HashSet<String>();
+            File path = getPresentListPath();
+            if (path.exists()) {
+                try {
+                    for (String line : Files.readLines(path, Charsets.UTF_8)) {
+                        // Skip lines cut short by an interrupted write
+                        if (line.length() == HASH_LENGTH) {
+                            present.add(line);
+                        }
+                    }
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to read the list of present assets", e);
+                }
+            }
+        }
+        return present;
+    }
+
+    private File getPresentListPath() {
+        return new File(dir, "objects/present.txt");
+    }
+
     /**
      * Create an instance of the assets tree builder, which copies the indexed
      * assets (identified by hashes) into a directory where the assets
@@ -75,53 +175,113 @@ public class AssetsRoot {
      * @throws LauncherException
      */
     public AssetsTreeBuilder createAssetsBuilder(@NonNull VersionManifest versionManifest) throws LauncherException {
-        String indexId = versionManifest.getAssetsIndex();
-        File path = getIndexPath(versionManifest);
-        AssetsIndex index = Persistence.read(path, AssetsIndex.class, true);
-        if (index == null || index.getObjects() == null) {
+        return createAssetsBuilder(versionManifest.getAssetsIndex());
+    }
+
+    /**
+     * Create an instance of the assets tree builder for an assets index.
+     *
+     * @param indexId the ID of the index
+     * @return the builder
+     * @throws LauncherException
+     */
+    public AssetsTreeBuilder createAssetsBuilder(@NonNull String indexId) throws LauncherException {
+        File path = getIndexPath(indexId);
+        if (!path.exists()) {
             throw new LauncherException("Missing index at " + path, tr("assets.missingIndex", path.getAbsolutePath()));
         }
         File treeDir = new File(dir, "virtual/" + indexId);
-        treeDir.mkdirs();
-        return new AssetsTreeBuilder(index, treeDir);
+        String fingerprint;
+        try {
+            fingerprint = Files.hash(path, Hashing.sha1()).toString();
+        } catch (IOException e) {
+            throw new LauncherException(e, tr("assets.missingIndex", path.getAbsolutePath()));
+        }
+        return new AssetsTreeBuilder(path, treeDir, new File(dir, "virtual/" + indexId + ".complete"), fingerprint);
     }
 
+    /**
+     * Builds the virtual tree for an index by hard linking each object to
+     * its real name, falling back to copies where the file system can't
+     * link. Once the tree is complete, a marker holding the hash of the index
+     * is written, and later builds for the same index return straight away
+     * without reading the index.
+     */
     public class AssetsTreeBuilder implements ProgressObservable {
-        private final AssetsIndex index;
+        private final File indexPath;
         private final File destDir;
-        private final int count;
+        private final File markerPath;
+        private final String fingerprint;
+        private int count = 0;
         private int processed = 0;
 
-        public AssetsTreeBuilder(AssetsIndex index, File destDir) {
-            this.index = index;
+        public AssetsTreeBuilder(File indexPath, File destDir, File markerPath, String fingerprint) {
+            this.indexPath = indexPath;
             this.destDir = destDir;
-            count = index.getObjects().size();
+            this.markerPath = markerPath;
+            this.fingerprint = fingerprint;
         }
 
         public File build() throws IOException, LauncherException {
+            if (isComplete()) {
+                return destDir;
+            }
+
+            AssetsIndex index = Persistence.read(indexPath, AssetsIndex.class, true);
+            if (index == null || index.getObjects() == null) {
+                throw new LauncherException("Missing index at " + indexPath,
+                        tr("assets.missingIndex", indexPath.getAbsolutePath()));
+            }
+            count = index.getObjects().size();
+
             AssetsRoot.log.info("Building asset virtual tree at '" + destDir.getAbsolutePath() + "'...");
+            markerPath.delete();
+            destDir.mkdirs();
 
+            boolean link = true;
+            int linked = 0;
             for (Map.Entry<String, Asset> entry : index.getObjects().entrySet()) {
                 File objectPath = getObjectPath(entry.getValue());
                 File virtualPath = new File(destDir, entry.getKey());
-                virtualPath.getParentFile().mkdirs();
                 if (!virtualPath.exists()) {
-                    log.log(Level.INFO, "Copying {0} to {1}...", new Object[] {
-                            objectPath.getAbsolutePath(), virtualPath.getAbsolutePath()});
-
-                    if (!objectPath.exists()) {
+                    // Stop trying to link after the first failure, since
+                    // the rest will almost certainly fail the same way
+                    try {
+                        link = MorePaths.linkOrCopy(objectPath, virtualPath, link);
+                    } catch (IOException e) {
+                        if (objectPath.exists()) {
+                            throw e;
+                        }
+                        // The list of present objects was wrong about this
+                        // one, so it gets downloaded again on the next update
+                        markMissing(entry.getValue().getHash());
                         String message = tr("assets.missingObject", objectPath.getAbsolutePath());
-                        throw new LauncherException("Missing object " + objectPath.getAbsolutePath(), message);
+                        throw new LauncherException(e, message);
+                    }
+                    if (link) {
+                        linked++;
                     }
-
-                    Files.copy(objectPath, virtualPath);
                 }
                 processed++;
             }
 
+            AssetsRoot.log.info("Built the asset virtual tree (" + linked + " files newly linked)");
+            Files.write(fingerprint, markerPath, Charsets.UTF_8);
             return destDir;
         }
 
+        private boolean isComplete() {
+            try {
+                // The marker sits outside the tree, so a tree that was deleted
+                // on its own would otherwise still count as complete
+                return destDir.isDirectory() && markerPath.exists()
+                        && Files.toString(markerPath, Charsets.UTF_8).trim().equals(fingerprint);
+            } catch (IOException e) {
+                AssetsRoot.log.log(Level.INFO, "Failed to read " + markerPath.getAbsolutePath(), e);
+                return false;
+            }
+        }
+
         @Override
         public double getProgress() {
             if (count == 0) {
@@ -8,6 +8,7 @@ package com.skcraft.launcher;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import com.skcraft.launcher.launch.JvmProfile;
 import lombok.Data;
 import net.teamfruit.skcraft.launcher.dirs.OptionLauncherDirectories;
 
@@ -32,6 +33,8 @@ public class Configuration {
     private int minMemory = 1024;
     private int maxMemory = 0; // Updated in Launcher
     private int permGen = 256;
+    private JvmProfile jvmProfile = JvmProfile.AUTO;
+    private boolean classDataSharing = false;
     private boolean showConsole = true;
     private int windowWidth = 854;
     private int widowHeight = 480;
@@ -45,6 +48,11 @@ public class Configuration {
     private String serverHost;
     private int serverPort = 25565;
     private boolean discordPing = true;
+    private int downloadRateLimit = 0; // KB/s, 0 for no limit
+    private int downloadThreads = 6;
+    private int downloadMaxThreads = 24;
+    private int downloadHedgeDelay = 5000; // ms, 0 to never hedge
+    private boolean deepVerify = false;
     private String pathCommonDataDir = OptionLauncherDirectories.DefaultPathCommonDataDir;
     private String pathInstancesDir = OptionLauncherDirectories.DefaultPathInstancesDir;
 
@@ -121,6 +121,26 @@ public class Instance implements Comparable<Instance> {
         return new File(getDir(), "version.json");
     }
 
+    /**
+     * Get the file for the saved launch plan.
+     *
+     * @return the launch plan path, which may not exist
+     */
+    @JsonIgnore
+    public File getLaunchPlanPath() {
+        return new File(getDir(), "launch_plan.json");
+    }
+
+    /**
+     * Get the directory for the class data sharing archive.
+     *
+     * @return the directory, which may not exist
+     */
+    @JsonIgnore
+    public File getClassDataDir() {
+        return new File(getDir(), "cds");
+    }
+
     /**
      * Get the file for the custom JAR file.
      *
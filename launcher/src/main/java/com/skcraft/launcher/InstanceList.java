@@ -159,7 +159,6 @@ public class InstanceList {
                         .get(packagesURL)
                         .execute()
                         .expectResponseCode(200)
-                        .returnContent()
                         .asJson(PackageList.class);
 
                 if (packages.getMinimumVersion() > Launcher.PROTOCOL_VERSION)
@@ -12,7 +12,6 @@ import java.awt.Window;
 import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.Locale;
@@ -35,15 +34,19 @@ import com.google.common.util.concurrent.MoreExecutors;
 import com.skcraft.launcher.auth.AccountList;
 import com.skcraft.launcher.auth.LoginService;
 import com.skcraft.launcher.auth.YggdrasilLoginService;
+import com.skcraft.launcher.launch.JavaRuntimeRegistry;
+import com.skcraft.launcher.launch.JvmProfile;
+import com.skcraft.launcher.launch.JvmTuning;
 import com.skcraft.launcher.launch.LaunchSupervisor;
+import com.skcraft.launcher.launch.NativesCache;
 import com.skcraft.launcher.persistence.Persistence;
 import com.skcraft.launcher.swing.DefaultFont;
 import com.skcraft.launcher.swing.SwingHelper;
 import com.skcraft.launcher.update.UpdateManager;
+import com.skcraft.launcher.util.BandwidthLimiter;
 import com.skcraft.launcher.util.HttpRequest;
 import com.skcraft.launcher.util.SharedLocale;
 import com.skcraft.launcher.util.SimpleLogFormatter;
-import com.sun.management.OperatingSystemMXBean;
 
 import lombok.Delegate;
 import lombok.Getter;
@@ -89,6 +92,8 @@ public final class Launcher {
     @Getter private final UriScheme uriScheme = new UriScheme(this);
 
     @Delegate @Getter private final LauncherDirectories directories;
+    private AssetsRoot assets;
+    private JavaRuntimeRegistry javaRuntimes;
 
     /**
      * Create a new launcher instance with the given base directory.
@@ -126,6 +131,7 @@ public final class Launcher {
 		};
 
 		LauncherDiscord.init(this.config);
+        BandwidthLimiter.INSTANCE.setRate(Math.max(0, config.getDownloadRateLimit()) * 1024L);
 
         DefaultFont.configUIFont();
 
@@ -162,6 +168,7 @@ public final class Launcher {
             @Override
             public void run() {
                 cleanupExtractDir();
+                new NativesCache(getNativeDir()).cleanup();
             }
         });
 
@@ -182,23 +189,17 @@ public final class Launcher {
      * Updates any incorrect / unset configuration settings with defaults.
      */
     public void setDefaultConfig() {
-        double configMax = config.getMaxMemory() / 1024.0;
-        double suggestedMax = 2;
-        double available = Double.MAX_VALUE;
+        long physicalMemory = JvmTuning.getTotalPhysicalMemory();
+        long available = physicalMemory > 0 ? physicalMemory / 1024 / 1024 : Long.MAX_VALUE;
 
-        try {
-            OperatingSystemMXBean bean = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
-            available = bean.getTotalPhysicalMemorySize() / 1024.0 / 1024.0 / 1024.0;
-            if (available <= 6) {
-                suggestedMax = available * 0.48;
-            } else {
-                suggestedMax = 4;
-            }
-        } catch (Exception ignored) {
+        // The OS reports a little less than what is installed, so only reset
+        // a heap that is about as large as all of the memory
+        if (config.getMaxMemory() <= 0 || config.getMaxMemory() >= available - 256) {
+            config.setMaxMemory(JvmTuning.suggestMaxMemory(physicalMemory));
         }
 
-        if (config.getMaxMemory() <= 0 || configMax >= available - 1) {
-            config.setMaxMemory((int) (suggestedMax * 1024));
+        if (config.getJvmProfile() == null) {
+            config.setJvmProfile(JvmProfile.AUTO);
         }
 
         String edition = options.getEdition();
@@ -236,8 +237,25 @@ public final class Launcher {
      *
      * @return a assets root
      */
-    public AssetsRoot getAssets() {
-        return new AssetsRoot(getAssetsDir());
+    public synchronized AssetsRoot getAssets() {
+        // Kept so that the list of present objects is only loaded once
+        File dir = getAssetsDir();
+        if (assets == null || !assets.getDir().equals(dir)) {
+            assets = new AssetsRoot(dir);
+        }
+        return assets;
+    }
+
+    /**
+     * Get the registry of Java runtimes that have been used.
+     *
+     * @return the registry
+     */
+    public synchronized JavaRuntimeRegistry getJavaRuntimes() {
+        if (javaRuntimes == null) {
+            javaRuntimes = new JavaRuntimeRegistry(new File(getCommonDataDir(), "java_runtimes.json"));
+        }
+        return javaRuntimes;
     }
 
 	/**
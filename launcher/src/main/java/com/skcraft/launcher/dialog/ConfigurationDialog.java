@@ -20,6 +20,7 @@ import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -38,12 +39,14 @@ import com.skcraft.concurrency.ObservableFuture;
 import com.skcraft.launcher.Configuration;
 import com.skcraft.launcher.Instance;
 import com.skcraft.launcher.Launcher;
+import com.skcraft.launcher.launch.JvmProfile;
 import com.skcraft.launcher.persistence.Persistence;
 import com.skcraft.launcher.swing.ActionListeners;
 import com.skcraft.launcher.swing.FormPanel;
 import com.skcraft.launcher.swing.LinedBoxPanel;
 import com.skcraft.launcher.swing.ObjectSwingMapper;
 import com.skcraft.launcher.swing.SwingHelper;
+import com.skcraft.launcher.util.BandwidthLimiter;
 import com.skcraft.launcher.util.SharedLocale;
 import com.skcraft.launcher.util.SwingExecutor;
 
@@ -79,6 +82,8 @@ public class ConfigurationDialog extends JDialog {
 	private final JSpinner minMemorySpinner = new JSpinner();
 	private final JSpinner maxMemorySpinner = new JSpinner();
 	private final JSpinner permGenSpinner = new JSpinner();
+	private final JComboBox<JvmProfile> jvmProfileCombo = new JComboBox<JvmProfile>(JvmProfile.values());
+	private final JCheckBox classDataSharingCheck = new JCheckBox(SharedLocale.tr("options.classDataSharing"));
 	private final FormPanel gameSettingsPanel = new FormPanel();
 	private final JCheckBox showConsoleCheck = new JCheckBox(SharedLocale.tr("options.showConsole"));
 	private final JSpinner widthSpinner = new JSpinner();
@@ -91,6 +96,9 @@ public class ConfigurationDialog extends JDialog {
 	private final JCheckBox useProxyCheck = new JCheckBox(SharedLocale.tr("options.useProxyCheck"));
 	private final JTextField proxyHostText = new JTextField();
 	private final JSpinner proxyPortText = new JSpinner();
+	private final JSpinner downloadRateLimitSpinner = new JSpinner();
+	private final JSpinner downloadThreadsSpinner = new JSpinner();
+	private final JSpinner downloadMaxThreadsSpinner = new JSpinner();
 	private final JTextField proxyUsernameText = new JTextField();
 	private final JPasswordField proxyPasswordText = new JPasswordField();
 	private final FormPanel advancedPanel = new FormPanel();
@@ -101,6 +109,7 @@ public class ConfigurationDialog extends JDialog {
 	private final JButton secretUnlockButton = new JButton(SharedLocale.tr("options.secretUnlockButton"));
 	private final JCheckBox offlineModeEnabledCheck = new JCheckBox(SharedLocale.tr("options.offlineModeEnabled"));
 	private final JTextField offlineModePlayerNameText = new JTextField();
+	private final JCheckBox deepVerifyCheck = new JCheckBox(SharedLocale.tr("options.deepVerify"));
 	private final LinedBoxPanel buttonsPanel = new LinedBoxPanel(true);
 	private final FormPanel pathDirPanel = new FormPanel();
 	private final JTextField pathCommonDataDirText = new JTextField();
@@ -160,6 +169,8 @@ public class ConfigurationDialog extends JDialog {
 		mapper.map(minMemorySpinner, "minMemory");
 		mapper.map(maxMemorySpinner, "maxMemory");
 		mapper.map(permGenSpinner, "permGen");
+		mapper.map(jvmProfileCombo, "jvmProfile", JvmProfile.class);
+		mapper.map(classDataSharingCheck, "classDataSharing");
 		mapper.map(showConsoleCheck, "showConsole");
 		mapper.map(widthSpinner, "windowWidth");
 		mapper.map(heightSpinner, "widowHeight");
@@ -172,10 +183,14 @@ public class ConfigurationDialog extends JDialog {
 		mapper.map(proxyPortText, "proxyPort");
 		mapper.map(proxyUsernameText, "proxyUsername");
 		mapper.map(proxyPasswordText, "proxyPassword");
+		mapper.map(downloadRateLimitSpinner, "downloadRateLimit");
+		mapper.map(downloadThreadsSpinner, "downloadThreads");
+		mapper.map(downloadMaxThreadsSpinner, "downloadMaxThreads");
 		mapper.map(skinText, "skin");
 		mapper.map(gameKeyText, "gameKey");
 		mapper.map(offlineModeEnabledCheck, "offlineModeEnabled");
 		mapper.map(offlineModePlayerNameText, "offlineModePlayerName");
+		mapper.map(deepVerifyCheck, "deepVerify");
 		mapper.map(pathCommonDataDirText, "pathCommonDataDir");
 		mapper.map(pathInstancesDirText, "pathInstancesDir");
 
@@ -190,6 +205,8 @@ public class ConfigurationDialog extends JDialog {
 		javaSettingsPanel.addRow(new JLabel(SharedLocale.tr("options.minMemory")), minMemorySpinner);
 		javaSettingsPanel.addRow(new JLabel(SharedLocale.tr("options.maxMemory")), maxMemorySpinner);
 		javaSettingsPanel.addRow(new JLabel(SharedLocale.tr("options.permGen")), permGenSpinner);
+		javaSettingsPanel.addRow(new JLabel(SharedLocale.tr("options.jvmProfile")), jvmProfileCombo);
+		javaSettingsPanel.addRow(classDataSharingCheck);
 		SwingHelper.removeOpaqueness(javaSettingsPanel);
 		tabbedPane.addTab(SharedLocale.tr("options.javaTab"), SwingHelper.alignTabbedPane(javaSettingsPanel));
 
@@ -208,6 +225,10 @@ public class ConfigurationDialog extends JDialog {
 		proxySettingsPanel.addRow(new JLabel(SharedLocale.tr("options.proxyPort")), proxyPortText);
 		proxySettingsPanel.addRow(new JLabel(SharedLocale.tr("options.proxyUsername")), proxyUsernameText);
 		proxySettingsPanel.addRow(new JLabel(SharedLocale.tr("options.proxyPassword")), proxyPasswordText);
+		proxySettingsPanel.addRow(Box.createVerticalStrut(15));
+		proxySettingsPanel.addRow(new JLabel(SharedLocale.tr("options.downloadRateLimit")), downloadRateLimitSpinner);
+		proxySettingsPanel.addRow(new JLabel(SharedLocale.tr("options.downloadThreads")), downloadThreadsSpinner);
+		proxySettingsPanel.addRow(new JLabel(SharedLocale.tr("options.downloadMaxThreads")), downloadMaxThreadsSpinner);
 		SwingHelper.removeOpaqueness(proxySettingsPanel);
 		tabbedPane.addTab(SharedLocale.tr("options.proxyTab"), SwingHelper.alignTabbedPane(proxySettingsPanel));
 
@@ -218,6 +239,7 @@ public class ConfigurationDialog extends JDialog {
 		advancedPanel.addRow(secretKeyText);
 		advancedPanel.addRow(offlineModeEnabledCheck);
 		advancedPanel.addRow(new JLabel(SharedLocale.tr("options.offlineModePlayerName")), offlineModePlayerNameText);
+		advancedPanel.addRow(deepVerifyCheck);
 		SwingHelper.removeOpaqueness(advancedPanel);
 		tabbedPane.addTab(SharedLocale.tr("options.advancedTab"), SwingHelper.alignTabbedPane(advancedPanel));
 
@@ -367,6 +389,8 @@ public class ConfigurationDialog extends JDialog {
 						launcher.setSkin(skin);
 				}
 
+				BandwidthLimiter.INSTANCE.setRate(Math.max(0, config.getDownloadRateLimit()) * 1024L);
+
 				Persistence.commitAndForget(config);
 				dispose();
 			}
@@ -21,6 +21,7 @@ import java.util.TimerTask;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -38,6 +39,7 @@ import com.skcraft.concurrency.ObservableFuture;
 import com.skcraft.concurrency.ProgressObservable;
 import com.skcraft.launcher.swing.LinedBoxPanel;
 import com.skcraft.launcher.swing.SwingHelper;
+import com.skcraft.launcher.util.BandwidthLimiter;
 import com.skcraft.launcher.util.SharedLocale;
 import com.skcraft.launcher.util.SwingExecutor;
 
@@ -48,6 +50,8 @@ import net.teamfruit.skcraft.launcher.swing.TipsPanel;
 @Log
 public class ProgressDialog extends JDialog {
 
+    private static final long[] RATE_PRESETS = { 0, 256, 512, 1024, 2048, 5120, 10240 };
+
     private static WeakReference<ProgressDialog> lastDialogRef;
 
     private final String defaultTitle;
@@ -63,12 +67,26 @@ public class ProgressDialog extends JDialog {
     private final JButton detailsButton = new JButton();
     private final JButton logButton = new JButton(SharedLocale.tr("progress.viewLog"));
     private final JButton cancelButton = new JButton(SharedLocale.tr("button.cancel"));
+    private final JLabel rateLabel = new JLabel(SharedLocale.tr("progress.rateLimit"));
+    private final JComboBox<RateOption> rateCombo = new JComboBox<RateOption>();
 
     public ProgressDialog(Window owner, String title, String message) {
+        this(owner, title, message, false);
+    }
+
+    /**
+     * Create a new progress dialog.
+     *
+     * @param owner the owner window
+     * @param title the title
+     * @param message the message
+     * @param downloads true if the task downloads files, which shows a selector for the download rate limit
+     */
+    public ProgressDialog(Window owner, String title, String message, boolean downloads) {
         super(owner, title, ModalityType.DOCUMENT_MODAL);
 
         setResizable(false);
-        initComponents();
+        initComponents(downloads);
         label.setText(message);
         defaultTitle = title;
         defaultMessage = message;
@@ -101,7 +119,7 @@ public class ProgressDialog extends JDialog {
         pack();
     }
 
-    private void initComponents() {
+    private void initComponents(boolean downloads) {
         progressBar.setMaximum(1000);
         progressBar.setMinimum(0);
         progressBar.setIndeterminate(true);
@@ -110,6 +128,10 @@ public class ProgressDialog extends JDialog {
         buttonsPanel.addElement(detailsButton);
         buttonsPanel.addElement(logButton);
         buttonsPanel.addGlue();
+        if (downloads) {
+            buttonsPanel.addElement(rateLabel);
+            buttonsPanel.addElement(rateCombo);
+        }
         buttonsPanel.addElement(cancelButton);
         buttonsPanel.setBorder(BorderFactory.createEmptyBorder(30, 13, 13, 13));
 
@@ -152,6 +174,19 @@ public class ProgressDialog extends JDialog {
             }
         });
 
+        if (downloads) {
+            initRateCombo();
+            rateCombo.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    RateOption option = (RateOption) rateCombo.getSelectedItem();
+                    if (option != null) {
+                        BandwidthLimiter.INSTANCE.setRate(option.bytesPerSecond);
+                    }
+                }
+            });
+        }
+
         logButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -167,6 +202,30 @@ public class ProgressDialog extends JDialog {
 		});
     }
 
+    private void initRateCombo() {
+        long current = BandwidthLimiter.INSTANCE.getRate();
+        boolean found = false;
+        for (long preset : RATE_PRESETS) {
+            long rate = preset * 1024;
+            // Keep a limit set in the options selectable even if it isn't a preset
+            if (!found && current != 0 && current < rate) {
+                rateCombo.addItem(new RateOption(current));
+                found = true;
+            }
+            rateCombo.addItem(new RateOption(rate));
+            found |= current == rate;
+        }
+        if (!found) {
+            rateCombo.addItem(new RateOption(current));
+        }
+
+        for (int i = 0; i < rateCombo.getItemCount(); i++) {
+            if (rateCombo.getItemAt(i).bytesPerSecond == current) {
+                rateCombo.setSelectedIndex(i);
+            }
+        }
+    }
+
     private boolean confirmCancel() {
         return SwingHelper.confirmDialog(this, SharedLocale.tr("progress.confirmCancel"), SharedLocale.tr("progress.confirmCancelTitle"));
     }
@@ -186,11 +245,19 @@ public class ProgressDialog extends JDialog {
     }
 
     public static void showProgress(final Window owner, final ObservableFuture<?> future, String title, String message) {
-        showProgress(owner, future, future, title, message);
+        showProgress(owner, future, future, title, message, false);
+    }
+
+    public static void showProgress(final Window owner, final ObservableFuture<?> future, String title, String message, boolean downloads) {
+        showProgress(owner, future, future, title, message, downloads);
     }
 
     public static void showProgress(final Window owner, final ListenableFuture<?> future, ProgressObservable observable, String title, String message) {
-        final ProgressDialog dialog = new ProgressDialog(owner, title, message) {
+        showProgress(owner, future, observable, title, message, false);
+    }
+
+    public static void showProgress(final Window owner, final ListenableFuture<?> future, ProgressObservable observable, String title, String message, boolean downloads) {
+        final ProgressDialog dialog = new ProgressDialog(owner, title, message, downloads) {
             @Override
             protected void cancel() {
                 future.cancel(true);
@@ -227,6 +294,25 @@ public class ProgressDialog extends JDialog {
         return null;
     }
 
+    private static class RateOption {
+        private final long bytesPerSecond;
+
+        private RateOption(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            if (bytesPerSecond == 0) {
+                return tr("progress.rateLimit.unlimited");
+            } else if (bytesPerSecond % (1024 * 1024) == 0) {
+                return tr("progress.rateLimit.megabytes", bytesPerSecond / (1024 * 1024));
+            } else {
+                return tr("progress.rateLimit.kilobytes", bytesPerSecond / 1024);
+            }
+        }
+    }
+
     private static class UpdateProgress extends TimerTask {
         private final ProgressDialog dialog;
         private final ProgressObservable observable;
@@ -0,0 +1,171 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits the number of downloads in flight and adjusts that limit from the
+ * measured throughput and response latency, in the manner of AIMD: the limit
+ * grows by one while adding downloads still pays off, and is cut back by a
+ * quarter when throughput falls, requests fail, or responses slow down
+ * without any gain in throughput.
+ */
+@Log
+public class AdaptiveConcurrency {
+
+    private static final double GAIN_THRESHOLD = 0.05;
+    private static final double LOSS_THRESHOLD = 0.10;
+    private static final double LATENCY_FACTOR = 2;
+    private static final double DECREASE_FACTOR = 0.75;
+
+    @Getter private final int minimum;
+    @Getter private final int maximum;
+    @Getter private int limit;
+    @Getter private int active;
+    @Getter private Decision decision = Decision.STEADY;
+
+    private long lastSampleTime = -1;
+    private long lastSampleBytes;
+    @Getter private double throughput = -1;
+
+    private long latencyTotal;
+    private int latencyCount;
+    private long baselineLatency = -1;
+    private int failures;
+
+    /**
+     * Create a new controller.
+     *
+     * @param minimum the lowest limit
+     * @param maximum the highest limit
+     * @param initial the limit to start with
+     */
+    public AdaptiveConcurrency(int minimum, int maximum, int initial) {
+        checkArgument(minimum >= 1, "minimum >= 1");
+        checkArgument(maximum >= minimum, "maximum >= minimum");
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.limit = Math.max(minimum, Math.min(maximum, initial));
+    }
+
+    /**
+     * Wait until another download may start.
+     *
+     * @throws InterruptedException on interruption
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (active >= limit) {
+            wait();
+        }
+        active++;
+    }
+
+    /**
+     * Signal that a download has finished.
+     *
+     * @param successful true if it succeeded
+     */
+    public synchronized void release(boolean successful) {
+        active--;
+        if (!successful) {
+            failures++;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Record the time a server took to start responding.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public synchronized void recordLatency(long nanos) {
+        latencyTotal += nanos;
+        latencyCount++;
+    }
+
+    /**
+     * Take a periodic sample of the total bytes transferred so far and adjust
+     * the limit.
+     *
+     * @param transferred the total number of bytes transferred
+     */
+    public synchronized void sample(long transferred) {
+        long now = System.nanoTime();
+        if (lastSampleTime < 0) {
+            lastSampleTime = now;
+            lastSampleBytes = transferred;
+            return;
+        }
+
+        double seconds = (now - lastSampleTime) / (double) TimeUnit.SECONDS.toNanos(1);
+        if (seconds <= 0) {
+            return;
+        }
+
+        double current = (transferred - lastSampleBytes) / seconds;
+        long latency = latencyCount > 0 ? latencyTotal / latencyCount : -1;
+        if (latency >= 0 && (baselineLatency < 0 || latency < baselineLatency)) {
+            baselineLatency = latency;
+        }
+
+        int previous = limit;
+        if (failures > 0) {
+            decrease();
+            decision = Decision.FAILURES;
+        } else if (throughput > 0 && current < throughput * (1 - LOSS_THRESHOLD)) {
+            decrease();
+            decision = Decision.THROUGHPUT_FELL;
+        } else if (throughput <= 0 || current > throughput * (1 + GAIN_THRESHOLD)) {
+            increase();
+            decision = Decision.THROUGHPUT_ROSE;
+        } else if (latency >= 0 && latency > baselineLatency * LATENCY_FACTOR) {
+            // More downloads are only making each one wait longer
+            decrease();
+            decision = Decision.LATENCY_ROSE;
+        } else {
+            decision = Decision.STEADY;
+        }
+
+        if (limit != previous) {
+            log.fine("Download concurrency " + previous + " -> " + limit + " (" + decision + ")");
+            notifyAll();
+        }
+
+        throughput = current;
+        lastSampleTime = now;
+        lastSampleBytes = transferred;
+        latencyTotal = 0;
+        latencyCount = 0;
+        failures = 0;
+    }
+
+    private void increase() {
+        limit = Math.min(maximum, limit + 1);
+    }
+
+    private void decrease() {
+        limit = Math.max(minimum, (int) (limit * DECREASE_FACTOR));
+    }
+
+    /**
+     * The reason for the last change to the limit.
+     */
+    public enum Decision {
+        STEADY,
+        THROUGHPUT_ROSE,
+        THROUGHPUT_FELL,
+        LATENCY_ROSE,
+        FAILURES
+    }
+
+}
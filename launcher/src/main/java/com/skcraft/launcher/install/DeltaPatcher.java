@@ -0,0 +1,123 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.skcraft.launcher.util.BinaryDelta;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.net.URL;
+import java.util.logging.Level;
+
+import static com.skcraft.launcher.util.SharedLocale.tr;
+
+/**
+ * Rebuilds a file from its previous version and a downloaded delta, then
+ * runs the task that installs it. If that doesn't produce the expected
+ * contents, the whole file is queued on the installer's downloader instead
+ * and the install task runs once it has arrived.
+ */
+@Log
+public class DeltaPatcher implements InstallTask {
+
+    private final Installer installer;
+    private final File base;
+    private final File delta;
+    private final File output;
+    private final String hash;
+    private final URL fallbackUrl;
+    private final long size;
+    private final InstallTask then;
+
+    /**
+     * Create a new task.
+     *
+     * @param installer the installer to queue the whole file on
+     * @param base the previous version of the file
+     * @param delta the downloaded delta, which is removed afterwards
+     * @param output the path to write the new version to
+     * @param hash the expected SHA-1 hash of the new version
+     * @param fallbackUrl the URL of the whole new version
+     * @param size the size of the whole new version
+     * @param then the task that installs the new version from the output path
+     */
+    public DeltaPatcher(@NonNull Installer installer, @NonNull File base, @NonNull File delta,
+                        @NonNull File output, @NonNull String hash, @NonNull URL fallbackUrl,
+                        long size, @NonNull InstallTask then) {
+        this.installer = installer;
+        this.base = base;
+        this.delta = delta;
+        this.output = output;
+        this.hash = hash;
+        this.fallbackUrl = fallbackUrl;
+        this.size = size;
+        this.then = then;
+    }
+
+    @Override
+    public void execute() throws Exception {
+        log.log(Level.INFO, "Patching {0} (with {1})...", new Object[]{base.getAbsoluteFile(), delta.getName()});
+
+        try {
+            patch();
+            if (matches()) {
+                then.execute();
+                return;
+            }
+            log.warning("Patching " + base.getName() + " did not give the expected file; downloading it instead");
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to patch " + base.getName() + "; downloading it instead", e);
+        } catch (RuntimeException e) {
+            // A malformed delta can fail in all sorts of ways
+            log.log(Level.WARNING, "Failed to patch " + base.getName() + "; downloading it instead", e);
+        } finally {
+            delta.delete();
+        }
+
+        output.delete();
+        File download = installer.getDownloader().download(fallbackUrl, hash, size, base.getName(), hash);
+        installer.queue(download, new FileMover(download, output));
+        installer.queue(download, then);
+    }
+
+    private void patch() throws IOException {
+        InputStream in = new FileInputStream(delta);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+            try {
+                BinaryDelta.apply(base, in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private boolean matches() throws IOException {
+        return Files.hash(output, Hashing.sha1()).toString().equalsIgnoreCase(hash);
+    }
+
+    @Override
+    public File getTarget() {
+        return then.getTarget();
+    }
+
+    @Override
+    public double getProgress() {
+        return -1;
+    }
+
+    @Override
+    public String getStatus() {
+        return tr("installer.patchingFile", base.getName());
+    }
+
+}
@@ -0,0 +1,24 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import java.io.File;
+
+/**
+ * Receives notice of downloads as they finish.
+ */
+public interface DownloadListener {
+
+    /**
+     * Called from a download thread once a file has been downloaded
+     * successfully and is in place.
+     *
+     * @param file the file, as returned when the download was queued
+     */
+    void downloadCompleted(File file);
+
+}
@@ -8,6 +8,7 @@ package com.skcraft.launcher.install;
 
 import com.skcraft.concurrency.ProgressObservable;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.net.URL;
 import java.util.List;
@@ -18,4 +19,19 @@ public interface Downloader extends ProgressObservable {
     File download(List<URL> urls, String key, long size, String name);
 
     File download(URL url, String key, long size, String name);
+
+    /**
+     * Queue a download that is checked against the given SHA-1 hash while it
+     * is being written, so that a corrupt file is never handed back.
+     *
+     * @param urls the URLs to try, in order
+     * @param key the key used to name the temporary file
+     * @param size the exact size of the file, or 0 if it is not known
+     * @param name the name shown in progress messages
+     * @param hash the expected SHA-1 hash, or null to skip verification
+     * @return the temporary file that will hold the download
+     */
+    File download(List<URL> urls, String key, long size, String name, @Nullable String hash);
+
+    File download(URL url, String key, long size, String name, @Nullable String hash);
 }
@@ -34,6 +34,11 @@ public class FileCopy implements InstallTask {
         Files.copy(from, to);
     }
 
+    @Override
+    public File getTarget() {
+        return to;
+    }
+
     @Override
     public double getProgress() {
         return -1;
@@ -0,0 +1,239 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.skcraft.launcher.model.modpack.DirectoryHashes;
+import lombok.Data;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.logging.Level;
+
+/**
+ * Remembers the hash of each file in an instance along with the size,
+ * modification time and file key the file had when it was hashed, so that
+ * files that haven't been touched since don't have to be read again.
+ * </p>
+ * As with Git's index, an entry is only trusted if the file was last
+ * modified comfortably before the index was written, since a change made in
+ * the same tick of a coarse file system clock would otherwise go unnoticed.
+ */
+@Data
+@Log
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class FileIndex {
+
+    private static final HashFunction hf = Hashing.sha1();
+    private static final long CLOCK_MARGIN = 2000;
+    private static final int BUFFER_SIZE = 1024 * 128;
+
+    private long written;
+    private Map<String, Entry> entries = new HashMap<String, Entry>();
+    private Map<String, String> directories;
+    private String features;
+    @JsonIgnore private boolean deepVerify;
+    @JsonIgnore private final Set<String> used = new HashSet<String>();
+    @JsonIgnore private final Set<String> hashed = new HashSet<String>();
+    @JsonIgnore private final Map<String, Entry> expected = new HashMap<String, Entry>();
+
+    /**
+     * Get the SHA-1 hash of a file, reading the file only if it may have
+     * changed since it was last hashed or if deep verification is on.
+     *
+     * @param key the path of the file within the instance
+     * @param file the file
+     * @return the hash
+     * @throws IOException on I/O error
+     */
+    public String getHash(@NonNull String key, @NonNull File file) throws IOException {
+        Entry stat = stat(file);
+        Entry known;
+        boolean fresh;
+        synchronized (this) {
+            used.add(key);
+            known = entries.get(key);
+            fresh = hashed.contains(key);
+        }
+
+        // Files hashed earlier in this update are trusted even when deep
+        // verifying, so that hashing ahead of time in parallel isn't wasted
+        if (known != null && known.getHash() != null && known.sameFile(stat)
+                && (fresh || (!deepVerify && known.getModified() + CLOCK_MARGIN < written))) {
+            return known.getHash();
+        }
+
+        stat.setHash(hash(file));
+        synchronized (this) {
+            entries.put(key, stat);
+            hashed.add(key);
+        }
+        return stat.getHash();
+    }
+
+    /**
+     * Test whether a file still has the size, modification time and file key
+     * it had when it was last hashed, without reading it. As with
+     * {@link #getHash(String, File)}, a file modified too close to when the
+     * index was written isn't trusted.
+     *
+     * @param key the path of the file within the instance
+     * @param file the file
+     * @return true if the file looks unchanged, false if it changed, is
+     *         missing or isn't in the index
+     */
+    public boolean isUnchanged(@NonNull String key, @NonNull File file) {
+        Entry known;
+        boolean fresh;
+        synchronized (this) {
+            known = entries.get(key);
+            fresh = hashed.contains(key);
+        }
+        if (known == null || known.getHash() == null) {
+            return false;
+        }
+        if (!fresh && known.getModified() + CLOCK_MARGIN >= written) {
+            return false;
+        }
+
+        try {
+            return known.sameFile(stat(file));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Keep the entry for a file that wasn't looked at because it is known to
+     * be unchanged.
+     *
+     * @param key the path of the file within the instance
+     */
+    public synchronized void retain(@NonNull String key) {
+        used.add(key);
+    }
+
+    /**
+     * Find the directories of the package that are the same as in the
+     * version that was last installed, so that the files in them don't have
+     * to be hashed or compared with the manifest. Each file in them is still
+     * checked with {@link #isUnchanged(String, File)}. Nothing is skipped
+     * when deep verifying.
+     *
+     * @param current the directory hashes of the new version, or null
+     * @param features the features that are selected, as a string
+     * @return the unchanged directories
+     */
+    public synchronized Set<String> getUnchangedDirectories(Map<String, String> current, @NonNull String features) {
+        if (deepVerify || current == null || directories == null || !features.equals(this.features)) {
+            return Collections.emptySet();
+        }
+        return DirectoryHashes.getUnchanged(directories, current);
+    }
+
+    /**
+     * Remember the directory hashes of the version that was just installed.
+     *
+     * @param directories the directory hashes, or null
+     * @param features the features that are selected, as a string
+     */
+    public synchronized void setInstalled(Map<String, String> directories, @NonNull String features) {
+        this.directories = directories;
+        this.features = features;
+    }
+
+    /**
+     * Note that a file is about to be installed with the given hash, so that
+     * it can be recorded by {@link #commit()} once installed without having
+     * to hash it again.
+     *
+     * @param key the path of the file within the instance
+     * @param file the file
+     * @param hash the SHA-1 hash the file will have
+     */
+    public synchronized void expect(@NonNull String key, @NonNull File file, @NonNull String hash) {
+        used.add(key);
+        Entry entry = new Entry();
+        entry.setFile(file);
+        entry.setHash(hash);
+        expected.put(key, entry);
+    }
+
+    /**
+     * Record the files that have been installed since the index was read,
+     * and drop the entries for files that are no longer part of the
+     * instance. Should be called just before the index is saved.
+     */
+    public synchronized void commit() {
+        for (Map.Entry<String, Entry> entry : expected.entrySet()) {
+            File file = entry.getValue().getFile();
+            try {
+                Entry stat = stat(file);
+                stat.setHash(entry.getValue().getHash());
+                entries.put(entry.getKey(), stat);
+            } catch (IOException e) {
+                log.log(Level.FINE, "Could not stat " + file.getAbsolutePath(), e);
+                entries.remove(entry.getKey());
+            }
+        }
+        expected.clear();
+
+        entries.keySet().retainAll(used);
+        written = System.currentTimeMillis();
+    }
+
+    private static String hash(File file) throws IOException {
+        Hasher hasher = hf.newHasher();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                hasher.putBytes(buffer, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return hasher.hash().toString();
+    }
+
+    private static Entry stat(File file) throws IOException {
+        BasicFileAttributes attrs = java.nio.file.Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        Object fileKey = attrs.fileKey();
+        Entry entry = new Entry();
+        entry.setSize(attrs.size());
+        entry.setModified(attrs.lastModifiedTime().toMillis());
+        entry.setFileKey(fileKey != null ? fileKey.toString() : null);
+        return entry;
+    }
+
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Entry {
+        private long size;
+        private long modified;
+        private String fileKey;
+        private String hash;
+        @JsonIgnore private File file;
+
+        private boolean sameFile(Entry other) {
+            return size == other.size && modified == other.modified
+                    && (fileKey == null ? other.fileKey == null : fileKey.equals(other.fileKey));
+        }
+    }
+
+}
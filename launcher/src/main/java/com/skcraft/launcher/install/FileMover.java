@@ -34,6 +34,11 @@ public class FileMover implements InstallTask {
         from.renameTo(to);
     }
 
+    @Override
+    public File getTarget() {
+        return to;
+    }
+
     @Override
     public double getProgress() {
         return -1;
@@ -0,0 +1,145 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import lombok.NonNull;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a running record of how well each download host has been doing
+ * (response latency, transfer speed and how often requests fail) so that
+ * the best mirrors can be tried first.
+ * </p>
+ * Recent results count for more than old ones. Hosts that haven't been
+ * used yet are tried ahead of known ones so that every mirror gets measured.
+ */
+public class HostHealth {
+
+    private static final double WEIGHT = 0.3;
+    private static final long REFERENCE_SIZE = 256 * 1024;
+    private static final long MIN_THROUGHPUT_SAMPLE = 64 * 1024;
+    private static final double MAX_ERROR_RATE = 0.95;
+    private static final double DEFAULT_LATENCY = 5;
+
+    private final Map<String, Stats> hosts = new HashMap<String, Stats>();
+
+    /**
+     * Record a successful transfer.
+     *
+     * @param url the URL
+     * @param latency the time taken for the server to respond, in nanoseconds
+     * @param bytes the number of bytes transferred
+     * @param duration the time the body took to arrive, in nanoseconds
+     */
+    public synchronized void success(@NonNull URL url, long latency, long bytes, long duration) {
+        Stats stats = getStats(url);
+        stats.latency = average(stats.latency, latency / (double) TimeUnit.SECONDS.toNanos(1));
+        // Small files say more about request overhead than about bandwidth
+        if (bytes >= MIN_THROUGHPUT_SAMPLE && duration > 0) {
+            stats.throughput = average(stats.throughput, bytes / (duration / (double) TimeUnit.SECONDS.toNanos(1)));
+        }
+        stats.errorRate = stats.errorRate * (1 - WEIGHT);
+    }
+
+    /**
+     * Record a transfer that was abandoned for being too slow.
+     *
+     * @param url the URL
+     * @param elapsed how long it had been running, in nanoseconds
+     */
+    public synchronized void abandoned(@NonNull URL url, long elapsed) {
+        Stats stats = getStats(url);
+        double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+        if (seconds > stats.latency) {
+            stats.latency = average(stats.latency, seconds);
+        }
+    }
+
+    /**
+     * Record a failed transfer.
+     *
+     * @param url the URL
+     */
+    public synchronized void failure(@NonNull URL url) {
+        Stats stats = getStats(url);
+        stats.errorRate = stats.errorRate * (1 - WEIGHT) + WEIGHT;
+    }
+
+    /**
+     * Get the expected time, in seconds, to fetch a typical file from the
+     * host of the given URL. Lower is better.
+     *
+     * @param url the URL
+     * @return the score, or 0 if nothing is known about the host yet
+     */
+    public synchronized double getScore(@NonNull URL url) {
+        Stats stats = hosts.get(getKey(url));
+        if (stats == null) {
+            return 0;
+        }
+
+        // A host that has only ever failed has no timings, so charge it a
+        // default latency to keep its error rate from being multiplied by 0
+        double time = stats.latency >= 0 ? stats.latency : DEFAULT_LATENCY;
+        if (stats.throughput > 0) {
+            time += REFERENCE_SIZE / stats.throughput;
+        }
+        return time / (1 - Math.min(MAX_ERROR_RATE, stats.errorRate));
+    }
+
+    /**
+     * Return the given URLs ordered from the healthiest host to the least
+     * healthy. URLs on equally healthy hosts keep their original order.
+     *
+     * @param urls the URLs
+     * @return a new list
+     */
+    public List<URL> order(@NonNull List<URL> urls) {
+        // Keyed by host string because URL.equals() and hashCode() resolve names
+        final Map<String, Double> scores = new HashMap<String, Double>();
+        for (URL url : urls) {
+            scores.put(getKey(url), getScore(url));
+        }
+
+        List<URL> ordered = new ArrayList<URL>(urls);
+        Collections.sort(ordered, new Comparator<URL>() {
+            @Override
+            public int compare(URL o1, URL o2) {
+                return Double.compare(scores.get(getKey(o1)), scores.get(getKey(o2)));
+            }
+        });
+        return ordered;
+    }
+
+    private Stats getStats(URL url) {
+        String key = getKey(url);
+        Stats stats = hosts.get(key);
+        if (stats == null) {
+            stats = new Stats();
+            hosts.put(key, stats);
+        }
+        return stats;
+    }
+
+    private static String getKey(URL url) {
+        return url.getProtocol() + "://" + url.getAuthority();
+    }
+
+    private static double average(double current, double sample) {
+        return current < 0 ? sample : current * (1 - WEIGHT) + sample * WEIGHT;
+    }
+
+    private static class Stats {
+        private double latency = -1;
+        private double throughput = -1;
+        private double errorRate = 0;
+    }
+
+}
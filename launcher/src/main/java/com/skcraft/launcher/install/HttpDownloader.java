@@ -8,13 +8,17 @@ package com.skcraft.launcher.install;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.skcraft.concurrency.ProgressObservable;
+import com.skcraft.launcher.util.BandwidthLimiter;
 import com.skcraft.launcher.util.HttpRequest;
 import com.skcraft.launcher.util.SharedLocale;
 import lombok.Getter;
@@ -22,28 +26,60 @@ import lombok.NonNull;
 import lombok.Setter;
 import lombok.extern.java.Log;
 
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import static com.skcraft.launcher.util.SharedLocale.tr;
+import static org.apache.commons.io.IOUtils.closeQuietly;
 
 @Log
 public class HttpDownloader implements Downloader {
 
+    private static final long UNKNOWN_SIZE_ESTIMATE = 10 * 1024;
+    private static final long SAMPLE_INTERVAL = 1000;
+    private static final long MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+
     private final Random random = new Random();
     private final HashFunction hf = Hashing.sha1();
 
     private final File tempDir;
     @Getter @Setter private int threadCount = 6;
+    @Getter @Setter private int maxThreadCount = 24;
+    @Getter @Setter private int minThreadCount = 2;
+    @Getter @Setter private boolean largestFirst = true;
+    @Getter @Setter private long smallFileThreshold = 256 * 1024;
+    @Getter @Setter private int smallFileLanes = 2;
+    @Getter @Setter private long hedgeDelay = -1;
+    @Getter @Setter @NonNull private HostHealth hostHealth = new HostHealth();
+    @Getter @Setter @Nullable private BandwidthLimiter bandwidthLimiter = BandwidthLimiter.INSTANCE;
     @Getter @Setter private int retryDelay = 2000;
     @Getter @Setter private int tryCount = 3;
+    @Getter @Setter private int segmentCount = 4;
+    @Getter @Setter private long segmentThreshold = 8 * 1024 * 1024;
+    @Getter @Setter @Nullable private volatile DownloadListener listener;
 
-    private List<HttpDownloadJob> queue = new ArrayList<HttpDownloadJob>();
+    private final List<HttpDownloadJob> queue = new ArrayList<HttpDownloadJob>();
+    private final List<HttpDownloadJob> queued = new ArrayList<HttpDownloadJob>();
+    private final Deque<HttpDownloadJob> pending = new ArrayDeque<HttpDownloadJob>();
     private final Set<String> usedKeys = new HashSet<String>();
 
     private final List<HttpDownloadJob> running = new ArrayList<HttpDownloadJob>();
@@ -51,6 +87,10 @@ public class HttpDownloader implements Downloader {
     private long downloaded = 0;
     private long total = 0;
     private int left = 0;
+    private boolean interrupted;
+    private ListeningExecutorService segmentExecutor;
+    private ExecutorService hedgeExecutor;
+    private AdaptiveConcurrency concurrency;
 
     /**
      * Create a new downloader using the given executor.
@@ -78,20 +118,34 @@ public class HttpDownloader implements Downloader {
     }
 
     @Override
-    public synchronized File download(@NonNull List<URL> urls, @NonNull String key, long size, String name) {
+    public File download(@NonNull List<URL> urls, @NonNull String key, long size, String name) {
+        return download(urls, key, size, name, null);
+    }
+
+    @Override
+    public synchronized File download(@NonNull List<URL> urls, @NonNull String key, long size, String name, @Nullable String hash) {
         if (urls.isEmpty()) {
             throw new IllegalArgumentException("Can't download empty list of URLs");
         }
 
-        String hash = hf.hashString(Strings.nullToEmpty(key) + urls.get(0), Charsets.UTF_8).toString();
-        hash = createUniqueKey(hash);
-        File tempFile = new File(tempDir, hash.substring(0, 2) + "/" + hash);
+        String tempName = hf.hashString(Strings.nullToEmpty(key) + urls.get(0), Charsets.UTF_8).toString();
+        tempName = createUniqueKey(tempName);
+        File tempFile = new File(tempDir, tempName.substring(0, 2) + "/" + tempName);
 
         // If the file is already downloaded (such as from before), then don't re-download
         if (!tempFile.exists()) {
+            // Without a hash, the size is only an estimate and can't be checked
+            long expectedSize = hash != null && size > 0 ? size : -1;
+            if (size <= 0) {
+                size = UNKNOWN_SIZE_ESTIMATE;
+            }
+
+            HttpDownloadJob job = new HttpDownloadJob(tempFile, urls, size, expectedSize, hash,
+                    name != null ? name : tempFile.getName());
             total += size;
             left++;
-            queue.add(new HttpDownloadJob(tempFile, urls, size, name != null ? name : tempFile.getName()));
+            queue.add(job);
+            queued.add(job);
         }
 
         return tempFile;
@@ -100,32 +154,94 @@ public class HttpDownloader implements Downloader {
 
     @Override
     public File download(URL url, String key, long size, String name) {
+        return download(url, key, size, name, null);
+    }
+
+    @Override
+    public File download(URL url, String key, long size, String name, @Nullable String hash) {
         List<URL> urls = new ArrayList<URL>();
         urls.add(url);
-        return download(urls, key, size, name);
+        return download(urls, key, size, name, hash);
+    }
+
+    /**
+     * Test whether files have been queued since downloads were last started.
+     *
+     * @return true if {@link #execute()} has files to download
+     */
+    public synchronized boolean hasQueued() {
+        return !queued.isEmpty();
     }
 
     /**
-     * Prevent further downloads from being queued and download queued files.
+     * Download the files queued since the last call. Files queued while
+     * this runs are left for the next call.
      *
      * @throws InterruptedException thrown on interruption
      * @throws IOException thrown on I/O error
      */
     public void execute() throws InterruptedException, IOException {
+        int lanes;
         synchronized (this) {
-            queue = Collections.unmodifiableList(queue);
+            List<HttpDownloadJob> ordered = new ArrayList<HttpDownloadJob>(queued);
+            queued.clear();
+            if (largestFirst) {
+                // The biggest files decide how long the whole update takes, so start
+                // them first, while the small-file lanes work from the other end
+                Collections.sort(ordered, new Comparator<HttpDownloadJob>() {
+                    @Override
+                    public int compare(HttpDownloadJob o1, HttpDownloadJob o2) {
+                        return Long.valueOf(o2.size).compareTo(o1.size);
+                    }
+                });
+                lanes = smallFileLanes;
+            } else {
+                lanes = 0;
+            }
+            pending.clear();
+            pending.addAll(ordered);
+        }
+
+        // Start at the thread count and let the controller add downloads up
+        // to the maximum while that still pays off, or back off from there
+        int initial = Math.max(1, threadCount);
+        int maximum = Math.max(initial, maxThreadCount);
+        final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(
+                Math.max(1, Math.min(minThreadCount, initial)), maximum, initial);
+        synchronized (this) {
+            this.concurrency = concurrency;
         }
 
+        // Jobs wait for the controller, so the pool only needs to be big enough for its maximum
         ListeningExecutorService executor = MoreExecutors.listeningDecorator(
-                Executors.newFixedThreadPool(threadCount));
+                Executors.newFixedThreadPool(concurrency.getMaximum() + lanes));
+
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                concurrency.sample(getTransferred());
+            }
+        }, 0, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+
+        if (segmentCount > 1) {
+            segmentExecutor = MoreExecutors.listeningDecorator(
+                    Executors.newFixedThreadPool(segmentCount));
+        }
+
+        if (hedgeDelay > 0) {
+            hedgeExecutor = Executors.newCachedThreadPool();
+        }
 
         try {
             List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>();
 
-            synchronized (this) {
-                for (HttpDownloadJob job : queue) {
-                    futures.add(executor.submit(job));
-                }
+            for (int i = 0; i < concurrency.getMaximum(); i++) {
+                futures.add(executor.submit(new Worker(false)));
+            }
+
+            for (int i = 0; i < lanes; i++) {
+                futures.add(executor.submit(new Worker(true)));
             }
 
             try {
@@ -135,31 +251,95 @@ public class HttpDownloader implements Downloader {
             }
 
             synchronized (this) {
+                if (interrupted) {
+                    throw new InterruptedException("Downloads were interrupted");
+                }
                 if (failed.size() > 0) {
                     throw new IOException(failed.size() + " file(s) could not be downloaded");
                 }
             }
         } finally {
+            sampler.shutdownNow();
             executor.shutdownNow();
+            if (segmentExecutor != null) {
+                segmentExecutor.shutdownNow();
+                segmentExecutor = null;
+            }
+            if (hedgeExecutor != null) {
+                hedgeExecutor.shutdownNow();
+                hedgeExecutor = null;
+            }
         }
     }
 
-    @Override
-    public synchronized double getProgress() {
-        if (total <= 0) {
-            return -1;
+    /**
+     * Take the next job to run.
+     *
+     * @param small true to take the smallest remaining job, if it is small enough
+     * @return the job, or null if there is nothing left for the caller
+     */
+    private synchronized HttpDownloadJob nextJob(boolean small) {
+        if (small) {
+            HttpDownloadJob job = pending.peekLast();
+            if (job != null && job.size < smallFileThreshold) {
+                return pending.pollLast();
+            } else {
+                return null;
+            }
+        } else {
+            return pending.pollFirst();
+        }
+    }
+
+    /**
+     * Runs queued jobs until there are none left. Workers in a small-file lane
+     * take the smallest jobs and don't wait on the concurrency limit, so that
+     * small files keep moving while the large ones download.
+     */
+    private class Worker implements Runnable {
+        private final boolean small;
+
+        private Worker(boolean small) {
+            this.small = small;
         }
 
+        @Override
+        public void run() {
+            HttpDownloadJob job;
+            while (!Thread.currentThread().isInterrupted() && (job = nextJob(small)) != null) {
+                job.run(!small);
+            }
+        }
+    }
+
+    /**
+     * Get an estimate of the number of bytes downloaded so far.
+     *
+     * @return the number of bytes
+     */
+    private synchronized long getTransferred() {
         long downloaded = this.downloaded;
         for (HttpDownloadJob job : running) {
             downloaded += Math.max(0, job.getProgress() * job.size);
         }
-        return downloaded / (double) total;
+        return downloaded;
+    }
+
+    @Override
+    public synchronized double getProgress() {
+        if (total <= 0) {
+            return -1;
+        }
+
+        return getTransferred() / (double) total;
     }
 
     @Override
     public synchronized String getStatus() {
         String failMessage = tr("downloader.failedCount", failed.size());
+        if (concurrency != null) {
+            failMessage += "\n" + getConcurrencyStatus(concurrency);
+        }
         if (running.size() == 1) {
             return tr("downloader.downloadingItem", running.get(0).getName()) +
                     "\n" + running.get(0).getStatus() +
@@ -178,23 +358,50 @@ public class HttpDownloader implements Downloader {
         }
     }
 
+    private static String getConcurrencyStatus(AdaptiveConcurrency concurrency) {
+        synchronized (concurrency) {
+            double throughput = Math.max(0, concurrency.getThroughput()) / 1024;
+            return tr("downloader.concurrency", concurrency.getActive(), concurrency.getLimit(),
+                    Math.round(throughput * 10) / 10.0,
+                    tr("downloader.concurrency." + concurrency.getDecision().name().toLowerCase()));
+        }
+    }
+
     public class HttpDownloadJob implements Runnable, ProgressObservable {
         private final File destFile;
         private final List<URL> urls;
         private final long size;
+        private final long expectedSize;
+        private final String hash;
         @Getter private String name;
-        private HttpRequest request;
+        private volatile HttpRequest request;
+        private volatile List<Segment> segments;
+        private boolean hedged;
 
-        private HttpDownloadJob(File destFile, List<URL> urls, long size, String name) {
+        private HttpDownloadJob(File destFile, List<URL> urls, long size, long expectedSize, String hash, String name) {
             this.destFile = destFile;
             this.urls = urls;
             this.size = size;
+            this.expectedSize = expectedSize;
+            this.hash = hash;
             this.name = name;
         }
 
         @Override
         public void run() {
+            run(true);
+        }
+
+        private void run(boolean limited) {
+            boolean acquired = false;
+            boolean successful = true;
+
             try {
+                if (limited) {
+                    concurrency.acquire();
+                    acquired = true;
+                }
+
                 synchronized (HttpDownloader.this) {
                     running.add(this);
                 }
@@ -204,13 +411,27 @@ public class HttpDownloader implements Downloader {
                 synchronized (HttpDownloader.this) {
                     downloaded += size;
                 }
+
+                DownloadListener listener = HttpDownloader.this.listener;
+                if (listener != null) {
+                    listener.downloadCompleted(destFile);
+                }
             } catch (IOException e) {
+                successful = false;
                 synchronized (HttpDownloader.this) {
                     failed.add(this);
                 }
             } catch (InterruptedException e) {
                 log.info("Download of " + destFile + " was interrupted");
+                synchronized (HttpDownloader.this) {
+                    interrupted = true;
+                }
+                // Let the worker see it and stop taking jobs
+                Thread.currentThread().interrupt();
             } finally {
+                if (acquired) {
+                    concurrency.release(successful);
+                }
                 synchronized (HttpDownloader.this) {
                     left--;
                     running.remove(this);
@@ -236,33 +457,500 @@ public class HttpDownloader implements Downloader {
 
         private void download(File file) throws IOException, InterruptedException {
             int trial = 0;
-            boolean first = true;
+            boolean delay = false;
             IOException lastException = null;
 
             do {
-                for (URL url : urls) {
+                // Try the mirrors that have been doing best first
+                List<URL> ordered = hostHealth.order(urls);
+                for (int i = 0; i < ordered.size(); i++) {
+                    URL url = ordered.get(i);
+
                     // Sleep between each trial
-                    if (!first) {
+                    if (delay) {
                         Thread.sleep((long) (retryDelay / 2 + (random.nextDouble() * retryDelay)));
                     }
-                    first = false;
+                    delay = true;
+                    hedged = false;
 
                     try {
-                        request = HttpRequest.get(url);
-                        request.execute().expectResponseCode(200).saveContent(file);
+                        if (!downloadSegmented(url, file)) {
+                            URL alternate = i + 1 < ordered.size() ? ordered.get(i + 1) : null;
+                            if (hedgeExecutor != null && alternate != null) {
+                                downloadHedged(url, alternate, file);
+                            } else {
+                                downloadResumable(url, file);
+                            }
+                        }
                         return;
+                    } catch (CorruptDownloadException e) {
+                        // The server was reachable, so there's no point in waiting
+                        lastException = e;
+                        delay = false;
+                        hostHealth.failure(url);
+                        log.log(Level.WARNING, "Discarded corrupt download from " + url + ": " + e.getMessage());
                     } catch (IOException e) {
                         lastException = e;
+                        hostHealth.failure(url);
                         log.log(Level.WARNING, "Failed to download " + url, e);
                     }
+
+                    // The hedge has already tried the next mirror this round
+                    if (hedged) {
+                        i++;
+                    }
                 }
             } while (++trial < tryCount);
 
             throw new IOException("Failed to download from " + urls, lastException);
         }
 
+        /**
+         * Download the file in one stream, continuing from the end of any
+         * partial file left behind by an earlier attempt.
+         *
+         * @param url the URL
+         * @param file the file to write to
+         * @throws IOException on I/O error
+         * @throws InterruptedException on interruption
+         */
+        private void downloadResumable(URL url, File file) throws IOException, InterruptedException {
+            new Transfer(url, file).call();
+        }
+
+        /**
+         * Download the file from one mirror, and if that hasn't finished after
+         * {@link #getHedgeDelay()}, start it on a second mirror too. Whichever
+         * finishes first wins and the other is abandoned. A failure of the
+         * alternate is recorded here, while a failure of the preferred mirror
+         * is left to the caller unless the alternate went on to win.
+         *
+         * @param url the preferred URL
+         * @param alternate the URL to hedge with
+         * @param file the file to write to
+         * @throws IOException on I/O error
+         * @throws InterruptedException on interruption
+         */
+        private void downloadHedged(URL url, URL alternate, File file) throws IOException, InterruptedException {
+            File hedgeFile = new File(file.getPath() + ".hedge");
+            Transfer primary = new Transfer(url, file);
+            Transfer secondary = new Transfer(alternate, hedgeFile);
+            CompletionService<Transfer> service = new ExecutorCompletionService<Transfer>(hedgeExecutor);
+            List<Future<Transfer>> futures = new ArrayList<Future<Transfer>>();
+            Transfer winner = null;
+
+            try {
+                futures.add(service.submit(primary));
+
+                Future<Transfer> done = service.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    log.info("Hedging download of " + name + " with " + alternate);
+                    hedgeFile.delete();
+                    getValidatorFile(hedgeFile).delete();
+                    futures.add(service.submit(secondary));
+                    hedged = true;
+                    done = service.take();
+                }
+
+                IOException primaryException = null;
+                for (int i = 0; i < futures.size(); i++) {
+                    if (i > 0) {
+                        done = service.take();
+                    }
+
+                    try {
+                        winner = done.get();
+                        break;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        IOException exception = cause instanceof IOException ?
+                                (IOException) cause : new IOException("Download failed", cause);
+                        if (done == futures.get(0)) {
+                            primaryException = exception;
+                        } else {
+                            hostHealth.failure(alternate);
+                        }
+                        if (futures.size() > 1) {
+                            log.log(Level.WARNING, "Hedged download of " + name + " failed on one mirror", cause);
+                        }
+                    }
+                }
+
+                if (winner == null) {
+                    throw primaryException;
+                }
+
+                if (primaryException != null) {
+                    hostHealth.failure(url);
+                }
+
+                if (winner == secondary) {
+                    // The primary still has the file open until it has stopped
+                    stop(primary, futures.get(0));
+                    file.delete();
+                    getValidatorFile(file).delete();
+                    if (!hedgeFile.renameTo(file)) {
+                        throw new IOException(String.format("Failed to rename %s to %s", hedgeFile, file));
+                    }
+                }
+            } finally {
+                if (winner != primary && !futures.isEmpty()) {
+                    stop(primary, futures.get(0));
+                }
+                if (winner != secondary) {
+                    if (futures.size() > 1) {
+                        stop(secondary, futures.get(1));
+                    }
+                    hedgeFile.delete();
+                    getValidatorFile(hedgeFile).delete();
+                }
+            }
+        }
+
+        /**
+         * Abandon a transfer and wait until it no longer writes to its file.
+         *
+         * @param transfer the transfer
+         * @param future its future
+         */
+        private void stop(Transfer transfer, Future<Transfer> future) {
+            future.cancel(true);
+            transfer.abort();
+            transfer.awaitStopped();
+        }
+
+        /**
+         * Try to download the file as several byte ranges in parallel. Each range
+         * is kept in its own part file so that it can be resumed on its own.
+         *
+         * @param url the URL
+         * @param file the file to write to
+         * @return true if the file was downloaded, false if it should be downloaded in one stream
+         * @throws IOException on I/O error
+         * @throws InterruptedException on interruption
+         */
+        private boolean downloadSegmented(URL url, File file) throws IOException, InterruptedException {
+            ListeningExecutorService segmentExecutor = HttpDownloader.this.segmentExecutor;
+            if (segmentExecutor == null || size < segmentThreshold) {
+                return false;
+            }
+
+            long probeStart = System.nanoTime();
+            HttpRequest probe = HttpRequest.request("HEAD", url).execute();
+            long latency = System.nanoTime() - probeStart;
+            long length;
+            boolean ranges;
+            try {
+                probe.expectResponseCode(200);
+                length = probe.getEntityLength();
+                ranges = "bytes".equalsIgnoreCase(probe.getHeaderField("Accept-Ranges"));
+            } finally {
+                probe.close();
+            }
+
+            if (!ranges || length < segmentThreshold) {
+                return false;
+            }
+
+            if (file.length() == length) {
+                MessageDigest digest = createDigest();
+                if (digest != null) {
+                    updateDigest(digest, file);
+                }
+                verify(file, digest);
+                return true;
+            }
+
+            // One range per few megabytes, up to the configured number of segments
+            int count = (int) Math.max(2, Math.min(segmentCount, length / MIN_SEGMENT_SIZE));
+            long segmentSize = (length + count - 1) / count;
+            List<Segment> segments = new ArrayList<Segment>();
+            List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>();
+            long resumed = 0;
+            long bodyStart = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                long start = i * segmentSize;
+                long end = Math.min(length, start + segmentSize) - 1;
+                if (start > end) {
+                    break;
+                }
+                Segment segment = new Segment(url, new File(file.getPath() + "." + i + ".part"), start, end, bandwidthLimiter);
+                resumed += Math.min(segment.partFile.length(), end - start + 1);
+                segments.add(segment);
+                futures.add(segmentExecutor.submit(segment));
+            }
+
+            this.segments = segments;
+
+            try {
+                Futures.allAsList(futures).get();
+            } catch (ExecutionException e) {
+                for (ListenableFuture<?> future : futures) {
+                    future.cancel(true);
+                }
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to download a segment of " + url, e.getCause());
+            } catch (InterruptedException e) {
+                for (ListenableFuture<?> future : futures) {
+                    future.cancel(true);
+                }
+                throw e;
+            }
+
+            // A failed segment is recorded against the host by the caller
+            hostHealth.success(url, latency, length - resumed, System.nanoTime() - bodyStart);
+
+            MessageDigest digest = createDigest();
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            if (digest != null) {
+                out = new DigestOutputStream(out, digest);
+            }
+
+            try {
+                for (Segment segment : segments) {
+                    Files.copy(segment.partFile, out);
+                }
+            } finally {
+                closeQuietly(out);
+            }
+
+            for (Segment segment : segments) {
+                segment.partFile.delete();
+            }
+
+            this.segments = null;
+            verify(file, digest);
+            return true;
+        }
+
+        @Nullable
+        private MessageDigest createDigest() {
+            if (hash == null) {
+                return null;
+            }
+
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Get the file that keeps the validator of a partly downloaded file,
+         * so that a resume can check the resource hasn't changed since.
+         *
+         * @param file the partly downloaded file
+         * @return the validator file
+         */
+        private File getValidatorFile(File file) {
+            return new File(file.getPath() + ".validator");
+        }
+
+        private void updateDigest(MessageDigest digest, File file) throws IOException {
+            Files.copy(file, new DigestOutputStream(ByteStreams.nullOutputStream(), digest));
+        }
+
+        /**
+         * Check the downloaded file against the expected size and hash, deleting
+         * it if it doesn't match.
+         *
+         * @param file the file
+         * @param digest the digest of the file's contents, or null if there is no hash to check
+         * @throws CorruptDownloadException if the file doesn't match
+         */
+        private void verify(File file, @Nullable MessageDigest digest) throws CorruptDownloadException {
+            if (expectedSize >= 0 && file.length() != expectedSize) {
+                long actualSize = file.length();
+                file.delete();
+                throw new CorruptDownloadException("Expected " + expectedSize + " bytes for " + name + " but got " + actualSize);
+            }
+
+            if (digest != null) {
+                String actual = HashCode.fromBytes(digest.digest()).toString();
+                if (!actual.equalsIgnoreCase(hash)) {
+                    file.delete();
+                    throw new CorruptDownloadException("Expected hash " + hash + " for " + name + " but got " + actual);
+                }
+            }
+        }
+
+        /**
+         * A single-stream download of the file from one URL.
+         */
+        private class Transfer implements Callable<Transfer> {
+            private final URL url;
+            private final File file;
+            private volatile HttpRequest request;
+            private volatile long started = -1;
+            private volatile boolean finished;
+            private boolean running;
+            private boolean aborted;
+
+            private Transfer(URL url, File file) {
+                this.url = url;
+                this.file = file;
+            }
+
+            @Override
+            public Transfer call() throws IOException, InterruptedException {
+                synchronized (this) {
+                    if (aborted) {
+                        throw new IOException("Download of " + file.getName() + " was abandoned");
+                    }
+                    running = true;
+                }
+
+                try {
+                    return transfer();
+                } finally {
+                    synchronized (this) {
+                        running = false;
+                        notifyAll();
+                    }
+                }
+            }
+
+            private Transfer transfer() throws IOException, InterruptedException {
+                started = System.nanoTime();
+                long offset = file.length();
+                File validatorFile = getValidatorFile(file);
+                HttpRequest request = HttpRequest.get(url).limit(bandwidthLimiter);
+                if (offset > 0) {
+                    log.info("Resuming " + file.getName() + " from byte " + offset);
+                    request.range(offset);
+                    // Get the whole resource instead if it has changed since
+                    if (validatorFile.exists()) {
+                        request.header("If-Range", Files.toString(validatorFile, Charsets.UTF_8));
+                    }
+                }
+                synchronized (this) {
+                    if (aborted) {
+                        throw new IOException("Download of " + file.getName() + " was abandoned");
+                    }
+                    this.request = request;
+                }
+                HttpDownloadJob.this.request = request;
+
+                long start = System.nanoTime();
+                request.execute();
+                long latency = System.nanoTime() - start;
+                concurrency.recordLatency(latency);
+
+                int code = request.getResponseCode();
+                if (offset > 0 && code == 416) {
+                    // Whatever we had doesn't belong to this resource any more
+                    request.close();
+                    file.delete();
+                    validatorFile.delete();
+                    throw new IOException("Server rejected resume of " + file.getName() + " at byte " + offset);
+                }
+
+                request.expectResponseCode(200, 206);
+
+                if (offset > 0 && code == 206 && request.getRangeStart() != offset) {
+                    log.warning("Got " + request.getHeaderField("Content-Range") + " for " + file.getName() +
+                            " instead of byte " + offset + ", so starting over");
+                    request.close();
+                    file.delete();
+                    validatorFile.delete();
+                    return transfer();
+                }
+
+                String validator = request.getValidator();
+                if (validator != null) {
+                    Files.write(validator, validatorFile, Charsets.UTF_8);
+                } else {
+                    validatorFile.delete();
+                }
+
+                // The server may have ignored the range and sent the whole thing
+                boolean append = code == 206;
+                MessageDigest digest = createDigest();
+                if (digest != null && append) {
+                    updateDigest(digest, file);
+                }
+
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(file, append));
+                if (digest != null) {
+                    out = new DigestOutputStream(out, digest);
+                }
+
+                long bodyStart = System.nanoTime();
+                try {
+                    request.saveContent(out);
+                } finally {
+                    closeQuietly(out);
+                }
+
+                hostHealth.success(url, latency, file.length() - (append ? offset : 0), System.nanoTime() - bodyStart);
+                validatorFile.delete();
+                verify(file, digest);
+                finished = true;
+                return this;
+            }
+
+            /**
+             * Stop the transfer by closing its connection, which unblocks any read.
+             */
+            public void abort() {
+                HttpRequest request;
+                synchronized (this) {
+                    if (aborted) {
+                        return;
+                    }
+                    aborted = true;
+                    request = this.request;
+                }
+
+                long started = this.started;
+                if (started >= 0 && !finished) {
+                    hostHealth.abandoned(url, System.nanoTime() - started);
+                }
+
+                if (request != null) {
+                    try {
+                        request.close();
+                    } catch (IOException e) {
+                        log.log(Level.FINE, "Failed to close abandoned download", e);
+                    }
+                }
+            }
+
+            /**
+             * Wait until the transfer has returned, if it was started, so
+             * that it no longer writes to its file.
+             */
+            public synchronized void awaitStopped() {
+                boolean interrupted = false;
+                while (running) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
         @Override
         public double getProgress() {
+            List<Segment> segments = this.segments;
+            if (segments != null) {
+                long total = 0;
+                long done = 0;
+                for (Segment segment : segments) {
+                    total += segment.end - segment.start + 1;
+                    done += segment.getDone();
+                }
+                return total > 0 ? done / (double) total : -1;
+            }
+
             HttpRequest request = this.request;
             return request != null ? request.getProgress() : -1;
         }
@@ -278,4 +966,74 @@ public class HttpDownloader implements Downloader {
         }
     }
 
+    /**
+     * Thrown when a download doesn't match its expected size or hash.
+     */
+    private static class CorruptDownloadException extends IOException {
+        private static final long serialVersionUID = -3320719398210471845L;
+
+        private CorruptDownloadException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One byte range of a file that is being downloaded in several parts.
+     */
+    private static class Segment implements Callable<Object> {
+        private final URL url;
+        private final File partFile;
+        private final long start;
+        private final long end;
+        private final BandwidthLimiter limiter;
+        private volatile HttpRequest request;
+
+        private Segment(URL url, File partFile, long start, long end, BandwidthLimiter limiter) {
+            this.url = url;
+            this.partFile = partFile;
+            this.start = start;
+            this.end = end;
+            this.limiter = limiter;
+        }
+
+        public long getDone() {
+            HttpRequest request = this.request;
+            if (request != null && request.getContentLength() >= 0) {
+                return request.getReadBytes() - start;
+            }
+            return Math.min(partFile.length(), end - start + 1);
+        }
+
+        @Override
+        public Object call() throws Exception {
+            long expected = end - start + 1;
+            long offset = partFile.length();
+            if (offset > expected) {
+                partFile.delete();
+                offset = 0;
+            }
+            if (offset == expected) {
+                return null;
+            }
+
+            HttpRequest request = HttpRequest.get(url).range(start + offset, end).limit(limiter);
+            this.request = request;
+            request.execute().expectResponseCode(206);
+            if (request.getRangeStart() != start + offset) {
+                request.close();
+                partFile.delete();
+                throw new IOException("Got " + request.getHeaderField("Content-Range") + " for " +
+                        partFile.getName() + " instead of byte " + (start + offset));
+            }
+            request.saveContent(partFile, true);
+
+            if (partFile.length() != expected) {
+                throw new IOException("Segment " + partFile.getName() + " is " + partFile.length() +
+                        " bytes but should be " + expected);
+            }
+
+            return null;
+        }
+    }
+
 }
@@ -37,6 +37,11 @@ public class InstallLogFileMover implements InstallTask {
         installLog.add(to, to);
     }
 
+    @Override
+    public File getTarget() {
+        return to;
+    }
+
     @Override
     public double getProgress() {
         return -1;
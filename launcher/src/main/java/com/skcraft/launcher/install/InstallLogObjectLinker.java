@@ -0,0 +1,75 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+
+import static com.skcraft.launcher.util.SharedLocale.tr;
+
+@Log
+public class InstallLogObjectLinker implements InstallTask {
+
+    private final InstallLog installLog;
+    private final ObjectStore store;
+    private final String hash;
+    private final File from;
+    private final File to;
+    private final boolean copy;
+
+    /**
+     * Create a new task.
+     *
+     * @param installLog the install log
+     * @param store the object store
+     * @param hash the SHA-1 hash of the file
+     * @param from a freshly downloaded file to add to the store first, or null
+     *             if the store already has it
+     * @param to the path to install to
+     * @param copy true to copy rather than link
+     */
+    public InstallLogObjectLinker(InstallLog installLog, @NonNull ObjectStore store, @NonNull String hash,
+                                  @Nullable File from, @NonNull File to, boolean copy) {
+        this.installLog = installLog;
+        this.store = store;
+        this.hash = hash;
+        this.from = from;
+        this.to = to;
+        this.copy = copy;
+    }
+
+    @Override
+    public void execute() throws IOException {
+        log.log(Level.INFO, "Installing to {0} (from object {1})...", new Object[]{to.getAbsoluteFile(), hash});
+        if (from != null) {
+            store.put(from, hash);
+        }
+        store.install(hash, to, copy);
+        installLog.add(to, to);
+    }
+
+    @Override
+    public File getTarget() {
+        return to;
+    }
+
+    @Override
+    public double getProgress() {
+        return -1;
+    }
+
+    @Override
+    public String getStatus() {
+        return tr("installer.linkingFile", hash, to);
+    }
+
+}
@@ -8,8 +8,20 @@ package com.skcraft.launcher.install;
 
 import com.skcraft.concurrency.ProgressObservable;
 
+import javax.annotation.Nullable;
+import java.io.File;
+
 public interface InstallTask extends ProgressObservable {
 
     void execute() throws Exception;
 
+    /**
+     * Get the path that this task writes to. Tasks that write to the same
+     * path are run one at a time, in the order that they were queued.
+     *
+     * @return the path, or null if the task can run alongside any other
+     */
+    @Nullable
+    File getTarget();
+
 }
@@ -10,77 +10,385 @@ import com.skcraft.concurrency.ProgressObservable;
 import com.skcraft.launcher.util.SharedLocale;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 import lombok.extern.java.Log;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.skcraft.launcher.LauncherUtils.checkInterrupted;
 import static com.skcraft.launcher.util.SharedLocale.tr;
 
+/**
+ * Downloads files and runs the tasks that install them.
+ * </p>
+ * Tasks run on a pool of threads. A task only waits for the tasks queued
+ * before it for the same download or the same target path, and for any
+ * tasks given as dependencies when it was queued.
+ */
 @Log
 public class Installer implements ProgressObservable {
 
+    private static final double DOWNLOAD_WEIGHT = 0.95;
+
     @Getter private final File tempDir;
     private final HttpDownloader downloader;
-    private InstallTask running;
+    @Getter @Setter private ObjectStore objectStore;
+    @Getter @Setter private FileIndex fileIndex;
+    @Getter @Setter private int threadCount = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    private volatile InstallTask running;
+    private volatile boolean downloaded;
     private int count = 0;
     private int finished = 0;
 
-    private List<InstallTask> queue = new ArrayList<InstallTask>();
+    private final Map<InstallTask, Node> nodes = new HashMap<InstallTask, Node>();
+    private final List<Node> queue = new ArrayList<Node>();
+    private final Map<File, List<Node>> followUps = new LinkedHashMap<File, List<Node>>();
+    private final Map<File, Node> lastByDownload = new HashMap<File, Node>();
+    private final Map<File, Node> lastByTarget = new HashMap<File, Node>();
 
     public Installer(@NonNull File tempDir) {
         this.tempDir = tempDir;
         this.downloader = new HttpDownloader(tempDir);
     }
 
-    public synchronized void queue(@NonNull InstallTask runnable) {
-        queue.add(runnable);
+    /**
+     * Queue a task to run after all downloads have finished.
+     *
+     * @param runnable the task
+     * @param dependencies tasks, already queued, that must finish first
+     */
+    public synchronized void queue(@NonNull InstallTask runnable, InstallTask... dependencies) {
+        add(null, runnable, dependencies);
+    }
+
+    /**
+     * Queue a task to run as soon as the given download has finished, while
+     * other files are still downloading. Tasks queued for the same download
+     * run in the order they were queued.
+     *
+     * @param download the file returned by the downloader
+     * @param runnable the task
+     * @param dependencies tasks, already queued, that must finish first
+     */
+    public synchronized void queue(@NonNull File download, @NonNull InstallTask runnable, InstallTask... dependencies) {
+        add(download, runnable, dependencies);
+    }
+
+    private void add(File download, InstallTask task, InstallTask[] dependencies) {
+        checkArgument(!nodes.containsKey(task), "Task already queued");
+
+        List<Node> after = new ArrayList<Node>();
+        for (InstallTask dependency : dependencies) {
+            Node node = nodes.get(dependency);
+            checkArgument(node != null, "Dependencies must be queued first");
+            after.add(node);
+        }
+
+        if (download != null && lastByDownload.containsKey(download)) {
+            after.add(lastByDownload.get(download));
+        }
+
+        File target = task.getTarget() != null ? task.getTarget().getAbsoluteFile() : null;
+        if (target != null && lastByTarget.containsKey(target)) {
+            after.add(lastByTarget.get(target));
+        }
+
+        // A task that has to wait for one that only runs after the downloads
+        // can't run during the downloads either
+        boolean early = download != null;
+        for (Node node : after) {
+            if (!node.early) {
+                early = false;
+            }
+        }
+
+        Node node = new Node(task, early);
+        for (Node dependency : after) {
+            // Tasks run during the downloads always finish before the rest
+            // are started, so only dependencies within a phase are tracked
+            if (dependency.early == early && !dependency.dependents.contains(node)) {
+                dependency.dependents.add(node);
+                node.waiting++;
+            }
+        }
+
+        if (early) {
+            List<Node> list = followUps.get(download);
+            if (list == null) {
+                list = new ArrayList<Node>();
+                followUps.put(download, list);
+            }
+            list.add(node);
+            node.waiting++; // For the download itself
+        } else {
+            queue.add(node);
+        }
+
+        nodes.put(task, node);
+        if (download != null) {
+            lastByDownload.put(download, node);
+        }
+        if (target != null) {
+            lastByTarget.put(target, node);
+        }
         count++;
     }
 
+    /**
+     * Download queued files, running the tasks queued for each file as its
+     * download finishes.
+     *
+     * @throws IOException thrown on I/O error
+     * @throws InterruptedException thrown on interruption
+     */
     public void download() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            // Tasks run during the downloads may queue more downloads (such
+            // as the whole file when a delta can't be applied), so keep going
+            // until a round doesn't leave anything new behind
+            boolean more;
+            do {
+                downloadRound(executor);
+                synchronized (this) {
+                    more = downloader.hasQueued() || !followUps.isEmpty();
+                }
+            } while (more);
+        } catch (IOException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to install a downloaded file", e);
+        } finally {
+            downloader.setListener(null);
+            executor.shutdownNow();
+            running = null;
+            downloaded = true;
+        }
+    }
+
+    private void downloadRound(ExecutorService executor) throws Exception {
+        final Schedule schedule;
+        final Set<File> files;
+        synchronized (this) {
+            files = new HashSet<File>(followUps.keySet());
+            List<Node> all = new ArrayList<Node>();
+            for (List<Node> list : followUps.values()) {
+                all.addAll(list);
+            }
+            schedule = new Schedule(executor, all);
+        }
+
+        downloader.setListener(new DownloadListener() {
+            @Override
+            public void downloadCompleted(File file) {
+                List<Node> list = null;
+                synchronized (Installer.this) {
+                    if (files.contains(file)) {
+                        list = followUps.remove(file);
+                    }
+                }
+                if (list != null) {
+                    schedule.release(list);
+                }
+            }
+        });
+
         downloader.execute();
+
+        // Files left over from an earlier attempt weren't downloaded again
+        List<Node> leftOver = new ArrayList<Node>();
+        synchronized (this) {
+            for (File file : files) {
+                List<Node> list = followUps.remove(file);
+                if (list != null) {
+                    leftOver.addAll(list);
+                }
+            }
+        }
+        schedule.release(leftOver);
+
+        schedule.await();
     }
 
-    public synchronized void execute() throws Exception {
-        queue = Collections.unmodifiableList(queue);
+    /**
+     * Run the tasks that were not queued for a download.
+     *
+     * @throws Exception on failure of a task
+     */
+    public void execute() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
 
         try {
-            for (InstallTask runnable : queue) {
-                checkInterrupted();
-                running = runnable;
-                runnable.execute();
-                finished++;
+            Schedule schedule;
+            synchronized (this) {
+                schedule = new Schedule(executor, queue);
             }
+            schedule.start();
+            schedule.await();
         } finally {
+            executor.shutdownNow();
             running = null;
         }
     }
 
-    public Downloader getDownloader() {
+    private void run(InstallTask task) throws Exception {
+        checkInterrupted();
+        running = task;
+        task.execute();
+        synchronized (this) {
+            finished++;
+        }
+    }
+
+    public HttpDownloader getDownloader() {
         return downloader;
     }
 
     @Override
     public double getProgress() {
-        return finished / (double) count;
+        double taskProgress;
+        synchronized (this) {
+            taskProgress = count > 0 ? finished / (double) count : 1;
+        }
+        double downloadProgress = downloaded ? 1 : Math.max(0, downloader.getProgress());
+        return downloadProgress * DOWNLOAD_WEIGHT + taskProgress * (1 - DOWNLOAD_WEIGHT);
     }
 
     @Override
     public String getStatus() {
         InstallTask running = this.running;
+        String taskStatus = null;
         if (running != null) {
             String status = running.getStatus();
             if (status == null) {
                 status = running.toString();
             }
-            return tr("installer.executing", count - finished) + "\n" + status;
+            synchronized (this) {
+                taskStatus = tr("installer.executing", count - finished) + "\n" + status;
+            }
+        }
+
+        if (!downloaded) {
+            String status = downloader.getStatus();
+            return taskStatus != null ? status + "\n" + taskStatus : status;
+        } else if (taskStatus != null) {
+            return taskStatus;
         } else {
             return SharedLocale.tr("installer.installing");
         }
     }
+
+    private static class Node {
+        private final InstallTask task;
+        private final boolean early;
+        private final List<Node> dependents = new ArrayList<Node>();
+        private int waiting;
+
+        private Node(InstallTask task, boolean early) {
+            this.task = task;
+            this.early = early;
+        }
+    }
+
+    /**
+     * Runs a set of tasks on an executor, starting each one once everything
+     * it waits for has finished. No more tasks are started after one fails.
+     */
+    private class Schedule {
+        private final ExecutorService executor;
+        private final List<Node> nodes;
+        private int remaining;
+        private int active;
+        private Throwable failure;
+
+        private Schedule(ExecutorService executor, List<Node> nodes) {
+            this.executor = executor;
+            this.nodes = new ArrayList<Node>(nodes);
+            this.remaining = nodes.size();
+        }
+
+        /**
+         * Start every task that isn't waiting for anything.
+         */
+        public synchronized void start() {
+            for (Node node : nodes) {
+                if (node.waiting == 0) {
+                    submit(node);
+                }
+            }
+        }
+
+        /**
+         * Clear one of the things that each of the given tasks waits for.
+         *
+         * @param list the tasks
+         */
+        public synchronized void release(List<Node> list) {
+            for (Node node : list) {
+                release(node);
+            }
+        }
+
+        private void release(Node node) {
+            if (--node.waiting == 0 && failure == null) {
+                submit(node);
+            }
+        }
+
+        private void submit(final Node node) {
+            active++;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Throwable error = null;
+                    try {
+                        Installer.this.run(node.task);
+                    } catch (Throwable t) {
+                        error = t;
+                    }
+                    finished(node, error);
+                }
+            });
+        }
+
+        private synchronized void finished(Node node, Throwable error) {
+            active--;
+            remaining--;
+            if (error != null && failure == null) {
+                failure = error;
+            }
+            if (failure == null) {
+                for (Node dependent : node.dependents) {
+                    release(dependent);
+                }
+            }
+            notifyAll();
+        }
+
+        /**
+         * Wait for every task to finish, or for the tasks already running to
+         * finish once one has failed.
+         *
+         * @throws Exception the failure of a task
+         */
+        public synchronized void await() throws Exception {
+            while (active > 0 || (failure == null && remaining > 0)) {
+                wait();
+            }
+
+            if (failure instanceof Exception) {
+                throw (Exception) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+    }
 }
@@ -0,0 +1,131 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.io.Files;
+import com.skcraft.launcher.util.MorePaths;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A launcher-wide store of files named by their SHA-1 hash, so that a file
+ * shared by several instances is only downloaded and stored once.
+ * </p>
+ * Files that are never changed in place are hard linked from the store into
+ * each instance where the file system allows it, and everything else is
+ * copied. Objects are trusted to match the hash they are named by.
+ */
+public class ObjectStore {
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("^[0-9a-f]{40}$");
+
+    @Getter private final File dir;
+    private final Set<String> pending = new HashSet<String>();
+
+    /**
+     * Create a new store.
+     *
+     * @param dir the directory to keep objects in
+     */
+    public ObjectStore(@NonNull File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Test whether the given hash can name an object in this store.
+     *
+     * @param hash the hash, possibly null
+     * @return true if the hash is a SHA-1 hash
+     */
+    public static boolean isValidHash(String hash) {
+        return hash != null && HASH_PATTERN.matcher(hash.toLowerCase()).matches();
+    }
+
+    /**
+     * Get the path of the object with the given hash.
+     *
+     * @param hash the SHA-1 hash
+     * @return the path, which may not exist
+     */
+    public File getObject(@NonNull String hash) {
+        if (!isValidHash(hash)) {
+            throw new IllegalArgumentException("Not a SHA-1 hash: " + hash);
+        }
+        hash = hash.toLowerCase();
+        return new File(dir, hash.substring(0, 2) + "/" + hash);
+    }
+
+    /**
+     * Check whether the store has the object with the given hash.
+     *
+     * @param hash the SHA-1 hash
+     * @return true if the object is present
+     */
+    public boolean contains(@NonNull String hash) {
+        return getObject(hash).isFile();
+    }
+
+    /**
+     * Mark the object with the given hash as about to be added, so that
+     * other entries with the same contents can wait for it rather than
+     * downloading it again.
+     *
+     * @param hash the SHA-1 hash
+     * @return true if the object was not already marked
+     */
+    public synchronized boolean markPending(@NonNull String hash) {
+        return pending.add(hash.toLowerCase());
+    }
+
+    /**
+     * Move a file into the store. The file must already have been verified
+     * against the hash.
+     *
+     * @param source the file, which is moved or removed
+     * @param hash the SHA-1 hash of the file
+     * @throws IOException on I/O error
+     */
+    public void put(@NonNull File source, @NonNull String hash) throws IOException {
+        File target = getObject(hash);
+        if (target.isFile()) {
+            source.delete();
+            return;
+        }
+
+        target.getParentFile().mkdirs();
+        if (!source.renameTo(target)) {
+            // The temporary directory may be on another file system
+            File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+            Files.copy(source, temp);
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("Failed to add " + source.getAbsolutePath() + " to the object store");
+            }
+            source.delete();
+        }
+    }
+
+    /**
+     * Place the object with the given hash at the given path.
+     *
+     * @param hash the SHA-1 hash
+     * @param target the path
+     * @param copy true to always copy rather than link, for files that may
+     *             be changed in place
+     * @throws IOException on I/O error
+     */
+    public void install(@NonNull String hash, @NonNull File target, boolean copy) throws IOException {
+        MorePaths.linkOrCopy(getObject(hash), target, !copy);
+    }
+
+}
@@ -6,56 +6,139 @@
 
 package com.skcraft.launcher.install;
 
-import com.google.common.io.ByteSource;
-import com.google.common.io.Closer;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
-import org.apache.commons.io.IOUtils;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.*;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts a zip archive into a directory.
+ * </p>
+ * The archive is opened through its central directory so that entries can
+ * be inflated on several threads at once, each thread writing its files
+ * through a channel with a large buffer after sizing the file up front.
+ */
+public class ZipExtract implements Runnable {
 
-import static org.apache.commons.io.IOUtils.closeQuietly;
+    private static final int MAX_THREADS = 8;
+    private static final int BUFFER_SIZE = 1024 * 256;
+    private static final long PARALLEL_THRESHOLD = 1024 * 1024;
 
-public class ZipExtract implements Runnable {
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
 
-    @Getter private final ByteSource source;
+    @Getter private final File source;
     @Getter private final File destination;
     @Getter @Setter
     private List<String> exclude;
 
-    public ZipExtract(@NonNull ByteSource source, @NonNull File destination) {
+    public ZipExtract(@NonNull File source, @NonNull File destination) {
         this.source = source;
         this.destination = destination;
     }
 
     @Override
     public void run() {
-        Closer closer = Closer.create();
+        try {
+            extract();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void extract() throws IOException {
+        final ZipFile zip = new ZipFile(source);
 
         try {
-            InputStream is = closer.register(source.openBufferedStream());
-            ZipInputStream zis = closer.register(new ZipInputStream(is));
-            ZipEntry entry;
+            String root = destination.getCanonicalPath() + File.separator;
+            List<ZipEntry> entries = new ArrayList<ZipEntry>();
+            long total = 0;
+
+            // Create all the directories first so that the threads don't
+            // have to race each other to do it
+            destination.mkdirs();
+            Enumeration<? extends ZipEntry> it = zip.entries();
+            while (it.hasMoreElements()) {
+                ZipEntry entry = it.nextElement();
+                if (!matches(entry)) {
+                    continue;
+                }
 
-            destination.getParentFile().mkdirs();
+                File file = new File(destination, entry.getName());
+                if (!file.getCanonicalPath().startsWith(root)) {
+                    throw new IOException("The entry " + entry.getName() + " is outside of the destination");
+                }
 
-            while ((entry = zis.getNextEntry()) != null) {
-                if (matches(entry)) {
-                    File file = new File(getDestination(), entry.getName());
-                    writeEntry(zis, file);
+                if (entry.isDirectory()) {
+                    file.mkdirs();
+                } else {
+                    file.getParentFile().mkdirs();
+                    entries.add(entry);
+                    total += Math.max(0, entry.getSize());
                 }
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+
+            int threads = Math.min(entries.size(), Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+            if (threads <= 1 || total < PARALLEL_THRESHOLD) {
+                for (ZipEntry entry : entries) {
+                    writeEntry(zip, entry);
+                }
+            } else {
+                extractParallel(zip, entries, threads);
+            }
         } finally {
-            try {
-                closer.close();
-            } catch (IOException e) {
+            zip.close();
+        }
+    }
+
+    private void extractParallel(final ZipFile zip, List<ZipEntry> entries, int threads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final ZipEntry entry : entries) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        writeEntry(zip, entry);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting " + source.getName(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException("Failed to extract " + source.getName(), cause);
+            }
+        } finally {
+            executor.shutdownNow();
         }
     }
 
@@ -77,19 +160,36 @@ public class ZipExtract implements Runnable {
         return true;
     }
 
-    private void writeEntry(ZipInputStream zis, File path) throws IOException {
-        FileOutputStream fos = null;
-        BufferedOutputStream bos = null;
+    private void writeEntry(ZipFile zip, ZipEntry entry) throws IOException {
+        File path = new File(destination, entry.getName());
+        byte[] buffer = buffers.get();
+        InputStream is = zip.getInputStream(entry);
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
 
         try {
-            path.getParentFile().mkdirs();
+            // Size the file up front so that the file system can lay it out
+            // in one piece rather than growing it with every write
+            if (entry.getSize() >= 0) {
+                file.setLength(entry.getSize());
+            }
 
-            fos = new FileOutputStream(path);
-            bos = new BufferedOutputStream(fos);
-            IOUtils.copy(zis, bos);
+            FileChannel channel = file.getChannel();
+            long written = 0;
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, len);
+                while (data.hasRemaining()) {
+                    written += channel.write(data, written);
+                }
+            }
+
+            // The size in the archive could be wrong
+            if (written != channel.size()) {
+                channel.truncate(written);
+            }
         } finally {
-            closeQuietly(bos);
-            closeQuietly(fos);
+            file.close();
+            is.close();
         }
     }
 
@@ -0,0 +1,223 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.launch;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * Manages the class data sharing archive of an instance, which holds the
+ * classes the game loaded in an earlier launch in a form that the JVM can
+ * map straight into memory on the next launch instead of loading and
+ * verifying them again.
+ * </p>
+ * The archive is named by a hash of the class path and the Java runtime, so
+ * a new one is made whenever either changes. Runtimes with dynamic archives
+ * (Java 13 and newer) write it when the game exits. Older runtimes from
+ * 8u40 on instead list the classes the game loaded, and the next launch
+ * dumps an archive from that list before starting the game. On Java 8 only
+ * the classes of the runtime itself can be archived this way.
+ */
+@Log
+public class ClassDataArchive {
+
+    private static final String EXTENSION = ".jsa";
+    private static final String LIST_EXTENSION = ".classlist";
+
+    @Getter private final File dir;
+    @Getter private final JavaRuntime runtime;
+
+    /**
+     * Create a new instance.
+     *
+     * @param dir the directory to keep the archive in
+     * @param runtime the runtime that will be started
+     */
+    public ClassDataArchive(@NonNull File dir, @NonNull JavaRuntime runtime) {
+        this.dir = dir;
+        this.runtime = runtime;
+    }
+
+    /**
+     * Test whether the runtime can write and use archives, either dynamic
+     * ones or ones dumped from a class list.
+     *
+     * @return true if supported
+     */
+    public boolean isSupported() {
+        return isDynamic() || isListed();
+    }
+
+    private boolean isDynamic() {
+        return runtime.getMajorVersion() >= 13
+                && runtime.supportsFlag("ArchiveClassesAtExit")
+                && runtime.supportsFlag("SharedArchiveFile");
+    }
+
+    private boolean isListed() {
+        // SharedArchiveFile is a diagnostic option before Java 9, so it
+        // isn't listed and the class list options are checked instead
+        return runtime.getMajorVersion() >= 8 && runtime.getPath() != null
+                && runtime.supportsFlag("DumpLoadedClassList")
+                && runtime.supportsFlag("SharedClassListFile");
+    }
+
+    /**
+     * Get the options that make the JVM use the archive for the given class
+     * path, or write it when the game exits if there isn't one yet. Archives
+     * for other class paths or runtimes are deleted.
+     *
+     * @param classPath the class path the game is started with
+     * @return a list of options, which is empty if the runtime isn't supported
+     * @throws InterruptedException on interruption
+     */
+    public List<String> getFlags(@NonNull String classPath) throws InterruptedException {
+        if (!isSupported()) {
+            return Collections.emptyList();
+        }
+
+        String key = getKey(classPath);
+        File archive = new File(dir, key + EXTENSION);
+        removeOthers(key);
+
+        if (!isDynamic()) {
+            return getListedFlags(classPath, archive, new File(dir, key + LIST_EXTENSION));
+        }
+
+        List<String> flags = new ArrayList<String>();
+
+        // Newer runtimes check the archive themselves and write a new one
+        // at exit if it can't be used
+        if (runtime.supportsFlag("AutoCreateSharedArchive")) {
+            dir.mkdirs();
+            flags.add("-XX:+AutoCreateSharedArchive");
+            flags.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+            return flags;
+        }
+
+        if (archive.length() > 0) {
+            flags.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        } else {
+            log.info("Writing a class data sharing archive to " + archive.getAbsolutePath() + " when the game exits");
+            delete(archive);
+            dir.mkdirs();
+            flags.add("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+        }
+
+        return flags;
+    }
+
+    private List<String> getListedFlags(String classPath, File archive, File list) throws InterruptedException {
+        List<String> flags = new ArrayList<String>();
+
+        if (!archive.exists() && list.length() > 0) {
+            dump(classPath, archive, list);
+        }
+
+        if (archive.length() > 0) {
+            flags.add("-XX:+UnlockDiagnosticVMOptions");
+            flags.add("-Xshare:auto");
+            flags.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        } else if (!archive.exists()) {
+            log.info("Listing the classes the game loads to " + list.getAbsolutePath());
+            list.delete();
+            dir.mkdirs();
+            flags.add("-XX:DumpLoadedClassList=" + list.getAbsolutePath());
+        }
+
+        return flags;
+    }
+
+    /**
+     * Dump an archive from the class list. If that fails, an empty archive
+     * is left behind so that it isn't tried again on every launch.
+     */
+    private void dump(String classPath, File archive, File list) throws InterruptedException {
+        log.info("Writing a class data sharing archive to " + archive.getAbsolutePath() + "...");
+
+        List<String> command = new ArrayList<String>();
+        command.add(runtime.getPath());
+        command.add("-XX:+UnlockDiagnosticVMOptions");
+        command.add("-Xshare:dump");
+        command.add("-XX:SharedClassListFile=" + list.getAbsolutePath());
+        command.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        command.add("-cp");
+        command.add(classPath);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+
+        try {
+            Process process = builder.start();
+            try {
+                ByteStreams.copy(process.getInputStream(), ByteStreams.nullOutputStream());
+            } finally {
+                closeQuietly(process.getInputStream());
+            }
+            if (process.waitFor() == 0 && archive.length() > 0) {
+                return;
+            }
+            log.warning("Failed to write " + archive.getAbsolutePath() + " (exit code " + process.exitValue() + ")");
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to write " + archive.getAbsolutePath(), e);
+        }
+
+        try {
+            delete(archive);
+            Files.touch(archive);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to create " + archive.getAbsolutePath(), e);
+        }
+    }
+
+    private String getKey(String classPath) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(classPath, Charsets.UTF_8);
+        hasher.putByte((byte) 0);
+        hasher.putString(String.valueOf(runtime.getPath()), Charsets.UTF_8);
+        hasher.putByte((byte) 0);
+        hasher.putString(String.valueOf(runtime.getVersion()), Charsets.UTF_8);
+        hasher.putLong(runtime.getSize());
+        hasher.putLong(runtime.getModified());
+        return hasher.hash().toString();
+    }
+
+    private void removeOthers(String key) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if ((name.endsWith(EXTENSION) || name.endsWith(LIST_EXTENSION)) && !name.startsWith(key + ".")) {
+                    log.info("Removing the outdated class data sharing file " + file.getAbsolutePath());
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        // Dumped archives are read-only, which stops Windows deleting them
+        file.setWritable(true);
+        file.delete();
+    }
+
+}
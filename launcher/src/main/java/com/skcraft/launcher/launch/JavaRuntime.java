@@ -0,0 +1,78 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.launch;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What was found out about a Java executable by running it, along with the
+ * size and modification time the executable had at the time. If it couldn't
+ * be run, only that is known.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class JavaRuntime {
+
+    private static final Pattern majorPattern = Pattern.compile("^(?:1\\.)?(\\d+)");
+
+    private String path;
+    private long size;
+    private long modified;
+    private String version;
+    private String vendor;
+    private int bits;
+    private long maxHeapSize;
+    private String versionOutput;
+    private Set<String> flags = new HashSet<String>();
+    private boolean failed;
+
+    /**
+     * Test whether the runtime is 64-bit.
+     *
+     * @return true if 64-bit
+     */
+    @JsonIgnore
+    public boolean is64Bit() {
+        return bits == 64;
+    }
+
+    /**
+     * Get the major version of the runtime, such as 8 for 1.8.0_392 or 17
+     * for 17.0.2.
+     *
+     * @return the major version, or 0 if not known
+     */
+    @JsonIgnore
+    public int getMajorVersion() {
+        if (version != null) {
+            Matcher matcher = majorPattern.matcher(version);
+            if (matcher.find()) {
+                return Integer.parseInt(matcher.group(1));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Test whether the runtime accepts the given -XX option. If the options
+     * of the runtime couldn't be listed, every option is assumed to work.
+     *
+     * @param name the name of the option, such as UseG1GC
+     * @return true if supported
+     */
+    public boolean supportsFlag(String name) {
+        return flags == null || flags.isEmpty() || flags.contains(name);
+    }
+
+}
@@ -9,19 +9,24 @@ package com.skcraft.launcher.launch;
 import com.skcraft.launcher.util.Environment;
 import com.skcraft.launcher.util.Platform;
 import com.skcraft.launcher.util.WinRegistry;
+import lombok.NonNull;
+import lombok.extern.java.Log;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
 
 /**
  * Finds the best Java runtime to use.
  */
+@Log
 public final class JavaRuntimeFinder {
 
+    private static final int MAX_PROBE_THREADS = 4;
+
     private JavaRuntimeFinder() {
     }
 
@@ -50,6 +55,172 @@ public final class JavaRuntimeFinder {
         return null;
     }
 
+    /**
+     * Look for Java runtimes in the usual places for the platform, check
+     * each of them through the registry and return the path to the one that
+     * scores best. Runtimes newer than the game can run on are left out.
+     * Of the rest, 64-bit runtimes come first, then newer versions, then
+     * those that would give the game the most heap by default.
+     *
+     * @param registry the registry to check runtimes with
+     * @param maxVersion the newest major version the game runs on, or 0 for no limit
+     * @param managedDirs directories that hold runtimes installed by the launcher
+     * @return the JVM location, or null if none were found
+     * @throws InterruptedException on interruption
+     */
+    public static File findBestJavaPath(@NonNull final JavaRuntimeRegistry registry, int maxVersion,
+                                        File... managedDirs) throws InterruptedException {
+        List<File> candidates = findJavaHomes(managedDirs);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        int threads = Math.min(candidates.size(), MAX_PROBE_THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<JavaRuntime> runtimes = new ArrayList<JavaRuntime>();
+        Map<JavaRuntime, File> binDirs = new IdentityHashMap<JavaRuntime, File>();
+
+        try {
+            Map<File, Future<JavaRuntime>> futures = new LinkedHashMap<File, Future<JavaRuntime>>();
+            for (File home : candidates) {
+                final File executable = JavaRuntimeRegistry.findExecutable(new File(home, "bin"));
+                futures.put(home, executor.submit(new Callable<JavaRuntime>() {
+                    @Override
+                    public JavaRuntime call() throws Exception {
+                        return registry.getRuntime(executable);
+                    }
+                }));
+            }
+
+            for (Map.Entry<File, Future<JavaRuntime>> entry : futures.entrySet()) {
+                try {
+                    JavaRuntime runtime = entry.getValue().get();
+                    if (maxVersion > 0 && runtime.getMajorVersion() > maxVersion) {
+                        log.info("Skipping Java " + runtime.getVersion() + " at " + entry.getKey() +
+                                ", which is newer than the game can run on");
+                        continue;
+                    }
+                    runtimes.add(runtime);
+                    binDirs.put(runtime, new File(entry.getKey(), "bin"));
+                } catch (ExecutionException e) {
+                    log.log(Level.INFO, "Skipping the Java runtime at " + entry.getKey(), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (runtimes.isEmpty()) {
+            return null;
+        }
+
+        Collections.sort(runtimes, new Comparator<JavaRuntime>() {
+            @Override
+            public int compare(JavaRuntime o1, JavaRuntime o2) {
+                if (o1.is64Bit() != o2.is64Bit()) {
+                    return o1.is64Bit() ? -1 : 1;
+                }
+                if (o1.getVersion() != null && o2.getVersion() != null) {
+                    int result = compareVersions(o1.getVersion(), o2.getVersion());
+                    if (result != 0) {
+                        return result;
+                    }
+                } else if (o1.getVersion() != null || o2.getVersion() != null) {
+                    return o1.getVersion() != null ? -1 : 1;
+                }
+                return o1.getMaxHeapSize() > o2.getMaxHeapSize() ? -1 : (o1.getMaxHeapSize() < o2.getMaxHeapSize() ? 1 : 0);
+            }
+        });
+
+        JavaRuntime best = runtimes.get(0);
+        log.info("Picked Java " + best.getVersion() + " at " + best.getPath() + " out of " + runtimes.size() + " runtime(s)");
+        return binDirs.get(best);
+    }
+
+    /**
+     * Get the home directories of the Java runtimes that can be found.
+     *
+     * @param managedDirs directories that hold runtimes installed by the launcher
+     * @return a list of home directories, each with a bin/java executable
+     */
+    public static List<File> findJavaHomes(File... managedDirs) {
+        Platform platform = Environment.getInstance().getPlatform();
+        String userHome = System.getProperty("user.home");
+        List<File> homes = new ArrayList<File>();
+
+        for (File dir : managedDirs) {
+            addChildren(homes, dir);
+        }
+
+        String javaHome = System.getenv("JAVA_HOME");
+        if (javaHome != null && !javaHome.isEmpty()) {
+            homes.add(new File(javaHome));
+        }
+        homes.add(new File(System.getProperty("java.home")));
+
+        if (platform == Platform.WINDOWS) {
+            List<JREEntry> entries = new ArrayList<JREEntry>();
+            try {
+                getEntriesFromRegistry(entries, "SOFTWARE\\JavaSoft\\Java Runtime Environment");
+                getEntriesFromRegistry(entries, "SOFTWARE\\JavaSoft\\Java Development Kit");
+            } catch (Throwable ignored) {
+            }
+            for (JREEntry entry : entries) {
+                homes.add(entry.dir);
+            }
+        } else if (platform == Platform.MAC_OS_X) {
+            addChildren(homes, new File("/Library/Java/JavaVirtualMachines"));
+            addChildren(homes, new File(userHome, "Library/Java/JavaVirtualMachines"));
+        } else {
+            addChildren(homes, new File("/usr/lib/jvm"));
+            addChildren(homes, new File("/usr/lib64/jvm"));
+            addChildren(homes, new File("/usr/java"));
+        }
+
+        addChildren(homes, new File(userHome, ".sdkman/candidates/java"));
+
+        // Keep the first of each runtime that can be run, by its real path
+        Set<File> seen = new HashSet<File>();
+        List<File> result = new ArrayList<File>();
+        for (File home : homes) {
+            File macHome = new File(home, "Contents/Home");
+            if (macHome.isDirectory()) {
+                home = macHome;
+            }
+            // A JRE inside a JDK is the same runtime
+            if (home.getName().equals("jre") && JavaRuntimeRegistry.findExecutable(new File(home.getParentFile(), "bin")) != null) {
+                home = home.getParentFile();
+            }
+            if (JavaRuntimeRegistry.findExecutable(new File(home, "bin")) == null) {
+                continue;
+            }
+            try {
+                if (seen.add(home.getCanonicalFile())) {
+                    result.add(home);
+                }
+            } catch (IOException e) {
+                log.log(Level.FINE, "Failed to resolve " + home.getAbsolutePath(), e);
+            }
+        }
+
+        return result;
+    }
+
+    private static void addChildren(List<File> homes, File dir) {
+        if (dir == null) {
+            return;
+        }
+        File[] children = dir.listFiles();
+        if (children != null) {
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    homes.add(child);
+                }
+            }
+        }
+    }
+
     private static void getEntriesFromRegistry(List<JREEntry> entries, String basePath)
             throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
         List<String> subKeys = WinRegistry.readStringSubKeys(WinRegistry.HKEY_LOCAL_MACHINE, basePath);
@@ -86,6 +257,43 @@ public final class JavaRuntimeFinder {
         }
     }
 
+    /**
+     * Compare two version strings so that newer versions come first.
+     */
+    private static int compareVersions(String first, String second) {
+        String[] a = first.split("[\\._\\-+]");
+        String[] b = second.split("[\\._\\-+]");
+        int min = Math.min(a.length, b.length);
+
+        for (int i = 0; i < min; i++) {
+            int x, y;
+
+            try {
+                x = Integer.parseInt(a[i]);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+
+            try {
+                y = Integer.parseInt(b[i]);
+            } catch (NumberFormatException e) {
+                return 1;
+            }
+
+            if (x > y) {
+                return -1;
+            } else if (x < y) {
+                return 1;
+            }
+        }
+
+        if (a.length == b.length) {
+            return 0; // Same
+        }
+
+        return a.length > b.length ? -1 : 1;
+    }
+
     private static class JREEntry implements Comparable<JREEntry> {
         private File dir;
         private String version;
@@ -99,37 +307,7 @@ public final class JavaRuntimeFinder {
                 return 1;
             }
 
-            String[] a = version.split("[\\._]");
-            String[] b = o.version.split("[\\._]");
-            int min = Math.min(a.length, b.length);
-
-            for (int i = 0; i < min; i++) {
-                int first, second;
-
-                try {
-                    first = Integer.parseInt(a[i]);
-                } catch (NumberFormatException e) {
-                    return -1;
-                }
-
-                try {
-                    second = Integer.parseInt(b[i]);
-                } catch (NumberFormatException e) {
-                    return 1;
-                }
-
-                if (first > second) {
-                    return -1;
-                } else if (first < second) {
-                    return 1;
-                }
-            }
-
-            if (a.length == b.length) {
-                return 0; // Same
-            }
-
-            return a.length > b.length ? -1 : 1;
+            return compareVersions(version, o.version);
         }
     }
 
@@ -0,0 +1,244 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.launch;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.skcraft.launcher.persistence.Persistence;
+import com.skcraft.launcher.util.Environment;
+import com.skcraft.launcher.util.Platform;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps what is known about each Java executable that has been used, so that
+ * an executable only has to be started to find out its version the first
+ * time it is seen and after it is replaced.
+ * </p>
+ * Runtimes are remembered by the absolute path of the executable and only
+ * trusted while the executable has the same size and modification time.
+ */
+@Log
+public class JavaRuntimeRegistry {
+
+    private static final Pattern versionPattern = Pattern.compile("version \"([^\"]+)\"");
+    private static final Pattern vendorPattern = Pattern.compile("^\\s*java\\.vendor = (.+)$", Pattern.MULTILINE);
+    private static final Pattern bitsPattern = Pattern.compile("^\\s*sun\\.arch\\.data\\.model = (\\d+)$", Pattern.MULTILINE);
+    private static final Pattern maxHeapPattern = Pattern.compile("^\\s*\\S+\\s+MaxHeapSize\\s+:?=\\s*(\\d+)", Pattern.MULTILINE);
+    private static final Pattern flagPattern = Pattern.compile("^\\s*\\S+\\s+(\\w+)\\s+:?=", Pattern.MULTILINE);
+
+    @Getter private final File path;
+    private Store store;
+
+    /**
+     * Create a new registry.
+     *
+     * @param path the file to save the registry to
+     */
+    public JavaRuntimeRegistry(@NonNull File path) {
+        this.path = path;
+    }
+
+    /**
+     * Get the Java executable in the given directory, or the one that would
+     * be started from the PATH if no directory is given.
+     *
+     * @param jvmPath the directory that holds the executable, or null
+     * @return the executable, or null if it can't be found
+     */
+    public static File findExecutable(File jvmPath) {
+        String name = Environment.getInstance().getPlatform() == Platform.WINDOWS ? "java.exe" : "java";
+
+        if (jvmPath != null) {
+            File file = new File(jvmPath, name);
+            return file.isFile() ? file.getAbsoluteFile() : null;
+        }
+
+        String systemPath = System.getenv("PATH");
+        if (systemPath != null) {
+            for (String dir : systemPath.split(Pattern.quote(File.pathSeparator))) {
+                if (dir.isEmpty()) {
+                    continue;
+                }
+                File file = new File(dir, name);
+                if (file.isFile()) {
+                    return file.getAbsoluteFile();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the details of a Java executable, starting it to find out if it
+     * hasn't been seen before or has changed since. An executable that
+     * couldn't be run is remembered as well, and isn't tried again until it
+     * changes.
+     *
+     * @param executable the executable
+     * @return the runtime
+     * @throws IOException if the executable couldn't be run, now or before
+     * @throws InterruptedException on interruption
+     */
+    public JavaRuntime getRuntime(@NonNull File executable) throws IOException, InterruptedException {
+        String key = executable.getAbsolutePath();
+        long size = executable.length();
+        long modified = executable.lastModified();
+
+        synchronized (this) {
+            JavaRuntime known = getStore().getRuntimes().get(key);
+            if (known != null && known.getSize() == size && known.getModified() == modified) {
+                if (known.isFailed()) {
+                    throw new IOException("The Java runtime at " + key + " failed to run before");
+                }
+                return known;
+            }
+        }
+
+        JavaRuntime runtime;
+        IOException error = null;
+        try {
+            runtime = probe(executable);
+        } catch (IOException e) {
+            runtime = new JavaRuntime();
+            runtime.setFailed(true);
+            error = e;
+        }
+        runtime.setPath(key);
+        runtime.setSize(size);
+        runtime.setModified(modified);
+
+        synchronized (this) {
+            getStore().getRuntimes().put(key, runtime);
+            try {
+                Persistence.write(path, store);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to save " + path.getAbsolutePath(), e);
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+
+        return runtime;
+    }
+
+    private Store getStore() {
+        if (store == null) {
+            store = Persistence.read(path, Store.class, true);
+            if (store == null) {
+                store = new Store();
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Start the executable to find out its version, vendor, bitness, default
+     * maximum heap size and the -XX options it takes.
+     */
+    private static JavaRuntime probe(File executable) throws IOException, InterruptedException {
+        log.info("Checking the Java runtime at " + executable.getAbsolutePath() + "...");
+
+        // -XshowSettings and -XX:+PrintFlagsFinal were added in later
+        // updates of Java 6 and 7, so older runtimes get a plain -version
+        String output = run(executable, "-XshowSettings:properties", "-XX:+PrintFlagsFinal", "-version");
+        if (output == null) {
+            output = run(executable, "-version");
+        }
+        if (output == null) {
+            throw new IOException("Failed to get the version of " + executable.getAbsolutePath());
+        }
+
+        JavaRuntime runtime = new JavaRuntime();
+
+        Matcher matcher = versionPattern.matcher(output);
+        if (matcher.find()) {
+            runtime.setVersion(matcher.group(1));
+        }
+
+        matcher = vendorPattern.matcher(output);
+        if (matcher.find()) {
+            runtime.setVendor(matcher.group(1).trim());
+        }
+
+        matcher = bitsPattern.matcher(output);
+        if (matcher.find()) {
+            runtime.setBits(Integer.parseInt(matcher.group(1)));
+        } else {
+            runtime.setBits(output.contains("64-Bit") ? 64 : 32);
+        }
+
+        matcher = maxHeapPattern.matcher(output);
+        if (matcher.find()) {
+            runtime.setMaxHeapSize(Long.parseLong(matcher.group(1)));
+        }
+
+        matcher = flagPattern.matcher(output);
+        while (matcher.find()) {
+            runtime.getFlags().add(matcher.group(1));
+        }
+
+        // Keep what java -version itself says for the log
+        StringBuilder versionOutput = new StringBuilder();
+        for (String line : output.split("\r?\n")) {
+            String trimmed = line.trim();
+            if (trimmed.contains(" = ")) {
+                continue;
+            }
+            if (trimmed.contains("version \"") || trimmed.contains("Runtime Environment") || trimmed.contains(" VM ")) {
+                if (versionOutput.length() > 0) {
+                    versionOutput.append("\n");
+                }
+                versionOutput.append(trimmed);
+            }
+        }
+        runtime.setVersionOutput(versionOutput.toString());
+
+        return runtime;
+    }
+
+    private static String run(File executable, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(executable.getAbsolutePath());
+        Collections.addAll(command, args);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+
+        // Read everything before waiting, since the option listing is
+        // longer than the pipe buffer
+        StringWriter writer = new StringWriter();
+        try {
+            IOUtils.copy(process.getInputStream(), writer);
+        } finally {
+            IOUtils.closeQuietly(process.getInputStream());
+        }
+
+        return process.waitFor() == 0 ? writer.toString() : null;
+    }
+
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Store {
+        private Map<String, JavaRuntime> runtimes = new HashMap<String, JavaRuntime>();
+    }
+
+}
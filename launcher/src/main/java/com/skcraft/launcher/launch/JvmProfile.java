@@ -0,0 +1,41 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.launch;
+
+import com.skcraft.launcher.util.SharedLocale;
+
+/**
+ * A set of garbage collector and memory options to start the game with.
+ */
+public enum JvmProfile {
+
+    /**
+     * Pick one of the other profiles from the Java version, the number of
+     * cores and the amount of memory.
+     */
+    AUTO,
+    /**
+     * The G1 collector with a short pause target, which keeps frame time
+     * spikes down at the cost of some throughput.
+     */
+    G1,
+    /**
+     * The parallel collector, for older runtimes and small heaps.
+     */
+    PARALLEL,
+    /**
+     * No options are added, leaving it all to the runtime and the JVM
+     * arguments.
+     */
+    NONE;
+
+    @Override
+    public String toString() {
+        return SharedLocale.tr("jvmProfile." + name().toLowerCase());
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.launch;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.skcraft.launcher.util.Environment;
+import com.skcraft.launcher.util.Platform;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Works out the garbage collector and memory options for a launch from a
+ * {@link JvmProfile}, the runtime that will be started and the machine it
+ * runs on.
+ */
+@Log
+public class JvmTuning {
+
+    private static final Pattern xxPattern = Pattern.compile("^-XX:[+-]?(\\w+)");
+    private static final File THP_SETTING = new File("/sys/kernel/mm/transparent_hugepage/enabled");
+    private static final int MIN_G1_HEAP = 2048;
+    private static final long MIN_G1_MEMORY = 4L * 1024 * 1024 * 1024;
+    private static final int LARGE_REGION_HEAP = 4096;
+
+    @Getter private final JavaRuntime runtime;
+    @Getter private final int cores;
+    @Getter private final long physicalMemory;
+    @Getter private final Environment environment;
+
+    /**
+     * Create a new instance for the given runtime on this machine.
+     *
+     * @param runtime the runtime, or null if it couldn't be checked
+     * @param environment the environment
+     */
+    public JvmTuning(JavaRuntime runtime, @NonNull Environment environment) {
+        this(runtime, Runtime.getRuntime().availableProcessors(), getTotalPhysicalMemory(), environment);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param runtime the runtime, or null if it couldn't be checked
+     * @param cores the number of cores
+     * @param physicalMemory the amount of memory in bytes, or 0 if not known
+     * @param environment the environment
+     */
+    public JvmTuning(JavaRuntime runtime, int cores, long physicalMemory, @NonNull Environment environment) {
+        this.runtime = runtime;
+        this.cores = cores;
+        this.physicalMemory = physicalMemory;
+        this.environment = environment;
+    }
+
+    /**
+     * Decide which profile {@link JvmProfile#AUTO} stands for.
+     *
+     * @param profile the chosen profile
+     * @param maxMemory the maximum heap in megabytes
+     * @return the profile to use
+     */
+    public JvmProfile resolve(JvmProfile profile, int maxMemory) {
+        if (profile != null && profile != JvmProfile.AUTO) {
+            return profile;
+        }
+
+        // Without knowing the runtime, don't risk options it may not have
+        if (runtime == null || runtime.getMajorVersion() == 0) {
+            return JvmProfile.NONE;
+        }
+
+        // G1 is only worth it from Java 8 on, with a reasonably sized heap,
+        // and with a spare core and some memory for its concurrent work
+        boolean enoughMemory = physicalMemory <= 0 || physicalMemory >= MIN_G1_MEMORY;
+        if (runtime.getMajorVersion() >= 8 && maxMemory >= MIN_G1_HEAP && cores >= 2 && enoughMemory) {
+            return JvmProfile.G1;
+        }
+
+        return JvmProfile.PARALLEL;
+    }
+
+    /**
+     * Get the options for a profile, leaving out any that the runtime
+     * doesn't support.
+     *
+     * @param profile the chosen profile
+     * @param maxMemory the maximum heap in megabytes
+     * @return a list of options
+     */
+    public List<String> getFlags(JvmProfile profile, int maxMemory) {
+        List<String> flags = new ArrayList<String>();
+
+        switch (resolve(profile, maxMemory)) {
+            case G1:
+                flags.add("-XX:+UseG1GC");
+                flags.add("-XX:MaxGCPauseMillis=50");
+                flags.add("-XX:+ParallelRefProcEnabled");
+                flags.add("-XX:ConcGCThreads=" + Math.max(1, cores / 4));
+                if (maxMemory >= LARGE_REGION_HEAP) {
+                    flags.add("-XX:G1HeapRegionSize=8M");
+                }
+                // Mods like to call System.gc(), which is a full collection
+                flags.add("-XX:+DisableExplicitGC");
+                break;
+            case PARALLEL:
+                flags.add("-XX:+UseParallelGC");
+                flags.add("-XX:ParallelGCThreads=" + Math.max(1, cores - 1));
+                break;
+            default:
+                return flags;
+        }
+
+        if (isTransparentHugePagesAvailable()) {
+            flags.add("-XX:+UseTransparentHugePages");
+        }
+
+        return filterSupported(flags);
+    }
+
+    /**
+     * Test whether the runtime accepts -XX:MaxPermSize, which was removed
+     * in Java 8 and makes newer runtimes refuse to start.
+     *
+     * @return true if supported
+     */
+    public boolean supportsPermGen() {
+        return runtime == null || (runtime.getMajorVersion() < 8 && runtime.supportsFlag("MaxPermSize"));
+    }
+
+    /**
+     * Suggest a maximum heap for the game from the amount of memory in the
+     * machine, leaving enough for the system and the launcher.
+     *
+     * @param physicalMemory the amount of memory in bytes
+     * @return the suggested maximum heap in megabytes
+     */
+    public static int suggestMaxMemory(long physicalMemory) {
+        if (physicalMemory <= 0) {
+            return 2048;
+        }
+
+        long total = physicalMemory / 1024 / 1024;
+        long suggested = Math.min(8192, Math.max(total / 2, total - 3072));
+        return (int) Math.max(1024, suggested);
+    }
+
+    /**
+     * Get the amount of memory in the machine.
+     *
+     * @return the amount of memory in bytes, or 0 if not known
+     */
+    public static long getTotalPhysicalMemory() {
+        try {
+            com.sun.management.OperatingSystemMXBean bean =
+                    (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+            return bean.getTotalPhysicalMemorySize();
+        } catch (Throwable e) {
+            log.log(Level.FINE, "Failed to get the amount of memory", e);
+            return 0;
+        }
+    }
+
+    private List<String> filterSupported(List<String> flags) {
+        List<String> supported = new ArrayList<String>();
+        for (String flag : flags) {
+            Matcher matcher = xxPattern.matcher(flag);
+            if (runtime == null || !matcher.find() || runtime.supportsFlag(matcher.group(1))) {
+                supported.add(flag);
+            } else {
+                log.info("Leaving out " + flag + ", which Java " + runtime.getVersion() + " doesn't support");
+            }
+        }
+        return supported;
+    }
+
+    private boolean isTransparentHugePagesAvailable() {
+        if (environment.getPlatform() != Platform.LINUX || !THP_SETTING.exists()) {
+            return false;
+        }
+
+        try {
+            String setting = Files.toString(THP_SETTING, Charsets.UTF_8);
+            return setting.contains("[always]") || setting.contains("[madvise]");
+        } catch (IOException e) {
+            log.log(Level.FINE, "Failed to read " + THP_SETTING.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.launch;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.skcraft.launcher.util.Environment;
+import lombok.Data;
+import lombok.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of launching an instance that only depend on the installed
+ * version and the chosen Java runtime, saved so that later launches of an
+ * unchanged instance don't have to read the version manifest and assets
+ * index or resolve libraries.
+ * </p>
+ * A plan is only used if its key matches the current inputs and all the
+ * files it points to are still there.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LaunchPlan {
+
+    private String key;
+    private String versionId;
+    private String jarPath;
+    private String mainClass;
+    private String minecraftArguments;
+    private String assetsIndex;
+    private String dockIcon;
+    private List<String> classPath = new ArrayList<String>();
+    private List<String> natives = new ArrayList<String>();
+
+    /**
+     * Compute the key of the plan for the given inputs.
+     *
+     * @param versionPath the path to the version manifest of the instance
+     * @param instanceVersion the version of the instance
+     * @param jvmPath the directory of the Java runtime, or null for the default
+     * @param environment the environment
+     * @return the key
+     * @throws IOException on I/O error
+     */
+    public static String getKey(@NonNull File versionPath, String instanceVersion, File jvmPath,
+                                @NonNull Environment environment) throws IOException {
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putBytes(Files.toByteArray(versionPath));
+        putField(hasher, instanceVersion);
+        putField(hasher, jvmPath != null ? jvmPath.getAbsolutePath() : null);
+        putField(hasher, environment.getPlatform().name());
+        putField(hasher, environment.getArch());
+        putField(hasher, environment.getPlatformVersion());
+        return hasher.hash().toString();
+    }
+
+    private static void putField(Hasher hasher, String value) {
+        hasher.putByte((byte) 0);
+        if (value != null) {
+            hasher.putString(value, Charsets.UTF_8);
+        }
+    }
+
+    /**
+     * Test whether the files that this plan refers to are all still there.
+     *
+     * @return true if the plan can be used
+     */
+    public boolean isUsable() {
+        if (key == null || versionId == null || jarPath == null || mainClass == null
+                || minecraftArguments == null || assetsIndex == null) {
+            return false;
+        }
+
+        if (!new File(jarPath).isFile()) {
+            return false;
+        }
+
+        if (dockIcon != null && !new File(dockIcon).isFile()) {
+            return false;
+        }
+
+        for (String path : classPath) {
+            if (!new File(path).exists()) {
+                return false;
+            }
+        }
+
+        for (String path : natives) {
+            if (!new File(path).isDirectory()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
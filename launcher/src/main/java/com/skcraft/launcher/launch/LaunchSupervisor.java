@@ -98,7 +98,7 @@ public class LaunchSupervisor {
 						launcher.getExecutor().submit(updater), updater);
 
 				// Show progress
-				ProgressDialog.showProgress(window, future, SharedLocale.tr("launcher.updatingTitle"), tr("launcher.updatingStatus", instance.getTitle()));
+				ProgressDialog.showProgress(window, future, SharedLocale.tr("launcher.updatingTitle"), tr("launcher.updatingStatus", instance.getTitle()), true);
 				SwingHelper.addErrorDialogCallback(window, future);
 
 				// Update the list of instances after updating
@@ -0,0 +1,162 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.launch;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.skcraft.launcher.install.ZipExtract;
+import com.skcraft.launcher.util.MorePaths;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Keeps the extracted contents of native library archives, named by a hash
+ * of the archive's path, size and modification time and the list of
+ * excluded paths, so that each archive only has to be extracted once rather
+ * than on every launch. As with the file index used for updates, an archive
+ * is not read to tell whether it has changed.
+ * </p>
+ * Entries are never changed once they are in place. Each launch links the
+ * files of the entries it needs into its own directory, so removing an old
+ * entry can't affect a game that is running.
+ */
+@Log
+public class NativesCache {
+
+    private static final long UNUSED_EXPIRY = TimeUnit.DAYS.toMillis(30);
+    private static final long TEMP_EXPIRY = TimeUnit.HOURS.toMillis(1);
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    @Getter private final File dir;
+
+    /**
+     * Create a new cache.
+     *
+     * @param dir the directory to keep extracted archives in
+     */
+    public NativesCache(@NonNull File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Get the directory with the extracted contents of the given archive,
+     * extracting the archive first if it isn't in the cache yet.
+     *
+     * @param archive the archive
+     * @param exclude the prefixes of paths not to extract, or null
+     * @return the directory, which must not be changed
+     * @throws IOException on I/O error
+     */
+    public File get(@NonNull File archive, List<String> exclude) throws IOException {
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(archive.getAbsolutePath(), Charsets.UTF_8);
+        hasher.putLong(archive.length());
+        hasher.putLong(archive.lastModified());
+        if (exclude != null) {
+            hasher.putString(Joiner.on('\0').join(exclude), Charsets.UTF_8);
+        }
+        File entry = new File(dir, hasher.hash().toString());
+
+        if (entry.isDirectory()) {
+            entry.setLastModified(System.currentTimeMillis());
+            return entry;
+        }
+
+        log.info("Extracting " + archive.getName() + " into the natives cache...");
+
+        // Extract to the side and move it into place when done, so that
+        // a half-extracted entry is never used
+        File temp = new File(dir, entry.getName() + "-" + System.nanoTime() + TEMP_SUFFIX);
+        ZipExtract extract = new ZipExtract(archive, temp);
+        extract.setExclude(exclude);
+        try {
+            extract.run();
+        } catch (RuntimeException e) {
+            FileUtils.deleteDirectory(temp);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+
+        if (!temp.renameTo(entry)) {
+            FileUtils.deleteDirectory(temp);
+            // Another launch may have just added the same entry
+            if (!entry.isDirectory()) {
+                throw new IOException("Failed to move " + temp.getAbsolutePath() + " to " + entry.getAbsolutePath());
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Place every file of a cache entry in the given directory, hard linked
+     * where possible.
+     *
+     * @param entry the directory returned by {@link #get(File, List)}
+     * @param destination the directory to link the files into
+     * @throws IOException on I/O error
+     */
+    public static void linkInto(@NonNull File entry, @NonNull File destination) throws IOException {
+        linkInto(entry, destination, true);
+    }
+
+    private static boolean linkInto(File source, File destination, boolean link) throws IOException {
+        File[] files = source.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                File target = new File(destination, file.getName());
+                if (file.isDirectory()) {
+                    link = linkInto(file, target, link);
+                } else {
+                    link = MorePaths.linkOrCopy(file, target, link);
+                }
+            }
+        }
+        return link;
+    }
+
+    /**
+     * Remove entries that haven't been used for a long time and extractions
+     * that were abandoned part way.
+     */
+    public void cleanup() {
+        long now = System.currentTimeMillis();
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+
+        for (File entry : entries) {
+            if (!entry.isDirectory()) {
+                continue;
+            }
+
+            long age = now - entry.lastModified();
+            if (entry.getName().endsWith(TEMP_SUFFIX) ? age > TEMP_EXPIRY : age > UNUSED_EXPIRY) {
+                log.info("Removing " + entry.getAbsolutePath() + " from the natives cache...");
+                try {
+                    FileUtils.deleteDirectory(entry);
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to delete " + entry.getAbsolutePath(), e);
+                }
+            }
+        }
+    }
+
+}
@@ -12,20 +12,19 @@ import static com.skcraft.launcher.util.SharedLocale.*;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.text.StrSubstitutor;
-import org.apache.commons.lang.StringUtils;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
-import com.google.common.io.Files;
 import com.skcraft.concurrency.DefaultProgress;
 import com.skcraft.concurrency.ProgressObservable;
 import com.skcraft.launcher.AssetsRoot;
@@ -34,7 +33,6 @@ import com.skcraft.launcher.Instance;
 import com.skcraft.launcher.Launcher;
 import com.skcraft.launcher.LauncherException;
 import com.skcraft.launcher.auth.Session;
-import com.skcraft.launcher.install.ZipExtract;
 import com.skcraft.launcher.model.minecraft.AssetsIndex;
 import com.skcraft.launcher.model.minecraft.Library;
 import com.skcraft.launcher.model.minecraft.VersionManifest;
@@ -56,6 +54,10 @@ import net.teamfruit.skcraft.launcher.model.modpack.ConnectServerInfo;
 @Log
 public class Runner implements Callable<Process>, ProgressObservable {
 
+    private static final int MAX_32BIT_MEMORY = 1024;
+    private static final int MAX_JAVA_VERSION = 8;
+    private static final Pattern collectorPattern = Pattern.compile("^-XX:\\+Use\\w*GC$");
+
     private ProgressObservable progress = new DefaultProgress(0, SharedLocale.tr("runner.preparing"));
 
     private final ObjectMapper mapper = new ObjectMapper();
@@ -65,11 +67,11 @@ public class Runner implements Callable<Process>, ProgressObservable {
     private final File extractDir;
     @Getter @Setter private Environment environment = Environment.getInstance();
 
-    private VersionManifest versionManifest;
-    private AssetsIndex assetsIndex;
+    private LaunchPlan plan;
     private File virtualAssetsDir;
     private Configuration config;
     private JavaProcessBuilder builder;
+    private JavaRuntime runtime;
     private AssetsRoot assetsRoot;
     private ConnectServerInfo server;
 
@@ -98,7 +100,7 @@ public class Runner implements Callable<Process>, ProgressObservable {
     private File getJarPath() {
         File jarPath = instance.getCustomJarPath();
         if (!jarPath.exists())
-			jarPath = launcher.getJarPath(versionManifest);
+			jarPath = new File(plan.getJarPath());
         return jarPath;
     }
 
@@ -111,39 +113,37 @@ public class Runner implements Callable<Process>, ProgressObservable {
         builder = new JavaProcessBuilder();
         assetsRoot = launcher.getAssets();
 
-        // Load manifiests
-        versionManifest = mapper.readValue(instance.getVersionPath(), VersionManifest.class);
+        addJvmArgs();
 
-        // Load assets index
-        File assetsFile = assetsRoot.getIndexPath(versionManifest);
-        try {
-            assetsIndex = mapper.readValue(assetsFile, AssetsIndex.class);
-        } catch (FileNotFoundException e) {
-            instance.setInstalled(false);
-            Persistence.commitAndForget(instance);
-            throw new LauncherException("Missing assets index " + assetsFile.getAbsolutePath(),
-                    tr("runner.missingAssetsIndex", instance.getTitle(), assetsFile.getAbsolutePath()));
-        } catch (IOException e) {
-            instance.setInstalled(false);
-            Persistence.commitAndForget(instance);
-            throw new LauncherException("Corrupt assets index " + assetsFile.getAbsolutePath(),
-                    tr("runner.corruptAssetsIndex", instance.getTitle(), assetsFile.getAbsolutePath()));
+        // Reuse the plan from the last launch if nothing it depends on changed
+        String planKey = LaunchPlan.getKey(instance.getVersionPath(), instance.getVersion(),
+                builder.getJvmPath(), environment);
+        plan = Persistence.read(instance.getLaunchPlanPath(), LaunchPlan.class, true);
+        if (plan != null && planKey.equals(plan.getKey()) && plan.isUsable()) {
+            Runner.log.info("Using the saved launch plan");
+        } else {
+            plan = createPlan(planKey);
+            try {
+                Persistence.write(instance.getLaunchPlanPath(), plan);
+            } catch (IOException e) {
+                Runner.log.log(Level.WARNING, "Failed to save the launch plan", e);
+            }
         }
 
         // Copy over assets to the tree
         try {
-            AssetsRoot.AssetsTreeBuilder assetsBuilder = assetsRoot.createAssetsBuilder(versionManifest);
+            AssetsRoot.AssetsTreeBuilder assetsBuilder = assetsRoot.createAssetsBuilder(plan.getAssetsIndex());
             progress = assetsBuilder;
             virtualAssetsDir = assetsBuilder.build();
         } catch (LauncherException e) {
             instance.setInstalled(false);
+            instance.setUpdatePending(true);
             Persistence.commitAndForget(instance);
             throw e;
         }
 
         progress = new DefaultProgress(0.9, SharedLocale.tr("runner.collectingArgs"));
 
-        addJvmArgs();
         addLibraries();
         addJarArgs();
         addProxyArgs();
@@ -154,26 +154,12 @@ public class Runner implements Callable<Process>, ProgressObservable {
         addLauncherArgs();
 
         builder.classPath(getJarPath());
-        builder.setMainClass(versionManifest.getMainClass());
+        builder.setMainClass(plan.getMainClass());
 
         callLaunchModifier();
+        addClassDataSharingArgs();
 
-        ProcessBuilder processTestVersionBuilder = new ProcessBuilder(builder.buildTestVersionCommand());
-        processTestVersionBuilder.directory(instance.getContentDir());
-        Runner.log.info("Checking Java Version...");
-        checkInterrupted();
-
-        Process testVersionProcess = processTestVersionBuilder.start();
-        if (testVersionProcess.waitFor()==0) {
-            StringWriter writer = new StringWriter();
-            IOUtils.copy(testVersionProcess.getInputStream(), writer);
-            IOUtils.copy(testVersionProcess.getErrorStream(), writer);
-            String output = writer.toString();
-            Runner.log.info("Java Version Info: " + StringUtils.trim(output));
-            if (!StringUtils.contains(output, "64-Bit"))
-            	if (SwingHelper.confirmDialog(null, SharedLocale.tr("runner.not64bitJava"), SharedLocale.tr("runner.not64bitJavaTitle")))
-            		throw new RuntimeException("Canceled");
-        }
+        checkJavaVersion();
 
         ProcessBuilder processBuilder = new ProcessBuilder(builder.buildCommand());
         processBuilder.directory(instance.getContentDir());
@@ -185,6 +171,100 @@ public class Runner implements Callable<Process>, ProgressObservable {
         return processBuilder.start();
     }
 
+    /**
+     * Read the version manifest and assets index and resolve the libraries
+     * for this environment into a new launch plan.
+     *
+     * @param key the key of the plan
+     * @return the plan
+     * @throws LauncherException on a missing or corrupt file
+     * @throws IOException on I/O error
+     */
+    private LaunchPlan createPlan(String key) throws LauncherException, IOException {
+        // Load manifiests
+        VersionManifest versionManifest = mapper.readValue(instance.getVersionPath(), VersionManifest.class);
+
+        // Load assets index
+        AssetsIndex assetsIndex;
+        File assetsFile = assetsRoot.getIndexPath(versionManifest);
+        try {
+            assetsIndex = mapper.readValue(assetsFile, AssetsIndex.class);
+        } catch (FileNotFoundException e) {
+            instance.setInstalled(false);
+            Persistence.commitAndForget(instance);
+            throw new LauncherException("Missing assets index " + assetsFile.getAbsolutePath(),
+                    tr("runner.missingAssetsIndex", instance.getTitle(), assetsFile.getAbsolutePath()));
+        } catch (IOException e) {
+            instance.setInstalled(false);
+            Persistence.commitAndForget(instance);
+            throw new LauncherException("Corrupt assets index " + assetsFile.getAbsolutePath(),
+                    tr("runner.corruptAssetsIndex", instance.getTitle(), assetsFile.getAbsolutePath()));
+        }
+
+        LaunchPlan plan = new LaunchPlan();
+        plan.setKey(key);
+        plan.setVersionId(versionManifest.getId());
+        plan.setJarPath(launcher.getJarPath(versionManifest).getAbsolutePath());
+        plan.setMainClass(versionManifest.getMainClass());
+        plan.setMinecraftArguments(versionManifest.getMinecraftArguments());
+        plan.setAssetsIndex(versionManifest.getAssetsIndex());
+
+        // Mac OS X dock icon
+        File icnsPath = assetsIndex.getObjectPath(assetsRoot, "icons/minecraft.icns");
+        if (icnsPath != null)
+			plan.setDockIcon(icnsPath.getAbsolutePath());
+
+        // Add libraries to classpath or extract the libraries as necessary
+        NativesCache nativesCache = new NativesCache(launcher.getNativeDir());
+        for (Library library : versionManifest.getLibraries()) {
+            if (!library.matches(environment))
+				continue;
+
+            File path = new File(launcher.getLibrariesDir(), library.getPath(environment));
+
+            if (path.exists()) {
+                Library.Extract extract = library.getExtract();
+                if (extract != null)
+					plan.getNatives().add(nativesCache.get(path, extract.getExclude()).getAbsolutePath());
+				else
+					plan.getClassPath().add(path.getAbsolutePath());
+            } else {
+                instance.setInstalled(false);
+                Persistence.commitAndForget(instance);
+                throw new LauncherException("Missing library " + library.getName(),
+                        tr("runner.missingLibrary", instance.getTitle(), library.getName()));
+            }
+        }
+
+        return plan;
+    }
+
+    /**
+     * Check that the Java runtime is 64-bit, asking whether to carry on if
+     * it isn't.
+     */
+    private void checkJavaVersion() {
+        if (runtime == null)
+			return;
+
+        Runner.log.info("Java Version Info: " + runtime.getVersionOutput());
+        if (!runtime.is64Bit())
+        	if (SwingHelper.confirmDialog(null, SharedLocale.tr("runner.not64bitJava"), SharedLocale.tr("runner.not64bitJavaTitle")))
+        		throw new RuntimeException("Canceled");
+    }
+
+    /**
+     * Add the class data sharing archive of the instance, if enabled.
+     *
+     * @throws InterruptedException on interruption
+     */
+    private void addClassDataSharingArgs() throws InterruptedException {
+        if (config.isClassDataSharing() && runtime != null) {
+            ClassDataArchive archive = new ClassDataArchive(instance.getClassDataDir(), runtime);
+            builder.getFlags().addAll(archive.getFlags(builder.buildClassPath()));
+        }
+    }
+
     /**
      * Call the manifest launch modifier.
      */
@@ -198,9 +278,8 @@ public class Runner implements Callable<Process>, ProgressObservable {
     private void addPlatformArgs() {
         // Mac OS X arguments
         if (getEnvironment().getPlatform() == Platform.MAC_OS_X) {
-            File icnsPath = assetsIndex.getObjectPath(assetsRoot, "icons/minecraft.icns");
-            if (icnsPath != null) {
-                builder.getFlags().add("-Xdock:icon=" + icnsPath.getAbsolutePath());
+            if (plan.getDockIcon() != null) {
+                builder.getFlags().add("-Xdock:icon=" + plan.getDockIcon());
                 builder.getFlags().add("-Xdock:name=Minecraft");
             }
         }
@@ -212,29 +291,17 @@ public class Runner implements Callable<Process>, ProgressObservable {
 
     /**
      * Add libraries.
+     *
+     * @throws IOException on I/O error
      */
-    private void addLibraries() throws LauncherException {
-        // Add libraries to classpath or extract the libraries as necessary
-        for (Library library : versionManifest.getLibraries()) {
-            if (!library.matches(environment))
-				continue;
-
-            File path = new File(launcher.getLibrariesDir(), library.getPath(environment));
-
-            if (path.exists()) {
-                Library.Extract extract = library.getExtract();
-                if (extract != null) {
-                    ZipExtract zipExtract = new ZipExtract(Files.asByteSource(path), extractDir);
-                    zipExtract.setExclude(extract.getExclude());
-                    zipExtract.run();
-                } else
-					builder.classPath(path);
-            } else {
-                instance.setInstalled(false);
-                Persistence.commitAndForget(instance);
-                throw new LauncherException("Missing library " + library.getName(),
-                        tr("runner.missingLibrary", instance.getTitle(), library.getName()));
-            }
+    private void addLibraries() throws IOException {
+        for (String path : plan.getClassPath())
+			builder.classPath(path);
+
+        for (String path : plan.getNatives()) {
+            File entry = new File(path);
+            entry.setLastModified(System.currentTimeMillis());
+            NativesCache.linkInto(entry, extractDir);
         }
 
         builder.getFlags().add("-Djava.library.path=" + extractDir.getAbsoluteFile());
@@ -244,8 +311,9 @@ public class Runner implements Callable<Process>, ProgressObservable {
      * Add JVM arguments.
      *
      * @throws IOException on I/O error
+     * @throws InterruptedException on interruption
      */
-    private void addJvmArgs() throws IOException {
+    private void addJvmArgs() throws IOException, InterruptedException {
         int minMemory = config.getMinMemory();
         int maxMemory = config.getMaxMemory();
         int permGen = config.getPermGen();
@@ -265,21 +333,75 @@ public class Runner implements Callable<Process>, ProgressObservable {
         if (minMemory > maxMemory)
 			maxMemory = minMemory;
 
-        builder.setMinMemory(minMemory);
-        builder.setMaxMemory(maxMemory);
-        builder.setPermGen(permGen);
-
         String rawJvmPath = config.getJvmPath();
         if (!Strings.isNullOrEmpty(rawJvmPath))
 			builder.tryJvmPath(new File(rawJvmPath));
+		else {
+            // Versions launched through minecraftArguments (LaunchWrapper,
+            // and Forge up to 1.12) crash on Java 9 and newer
+            File bestJvmPath = JavaRuntimeFinder.findBestJavaPath(
+                    launcher.getJavaRuntimes(), MAX_JAVA_VERSION, launcher.getRuntimesDir());
+            if (bestJvmPath != null)
+				builder.setJvmPath(bestJvmPath);
+        }
+
+        runtime = getRuntime();
+        JvmTuning tuning = new JvmTuning(runtime, environment);
+
+        // A 32-bit runtime can't reserve much more than this and won't start
+        if (runtime != null && !runtime.is64Bit() && maxMemory > MAX_32BIT_MEMORY) {
+            Runner.log.warning("Limiting the maximum memory to " + MAX_32BIT_MEMORY + " MB for a 32-bit Java runtime");
+            maxMemory = MAX_32BIT_MEMORY;
+            minMemory = Math.min(minMemory, maxMemory);
+        }
+
+        if (!tuning.supportsPermGen())
+			permGen = 0;
+
+        builder.setMinMemory(minMemory);
+        builder.setMaxMemory(maxMemory);
+        builder.setPermGen(permGen);
 
         String rawJvmArgs = config.getJvmArgs();
-        if (!Strings.isNullOrEmpty(rawJvmArgs)) {
-            List<String> flags = builder.getFlags();
+        List<String> jvmArgs = !Strings.isNullOrEmpty(rawJvmArgs) ? JavaProcessBuilder.splitArgs(rawJvmArgs) : new ArrayList<String>();
+
+        // Leave the collector alone if the JVM arguments already pick one
+        if (!hasCollectorArg(jvmArgs)) {
+            List<String> tuningFlags = tuning.getFlags(config.getJvmProfile(), maxMemory);
+            Runner.log.info("JVM profile " + tuning.resolve(config.getJvmProfile(), maxMemory).name() + ": " + tuningFlags);
+            builder.getFlags().addAll(tuningFlags);
+        }
+
+        builder.getFlags().addAll(jvmArgs);
+    }
+
+    /**
+     * Get the details of the Java runtime that will be started.
+     *
+     * @return the runtime, or null if it couldn't be checked
+     * @throws InterruptedException on interruption
+     */
+    private JavaRuntime getRuntime() throws InterruptedException {
+        File executable = JavaRuntimeRegistry.findExecutable(builder.getJvmPath());
+        if (executable == null) {
+            Runner.log.warning("Couldn't find the Java executable to check its version");
+            return null;
+        }
+
+        try {
+            return launcher.getJavaRuntimes().getRuntime(executable);
+        } catch (IOException e) {
+            Runner.log.log(Level.WARNING, "Failed to check the Java version", e);
+            return null;
+        }
+    }
 
-            for (String arg : JavaProcessBuilder.splitArgs(rawJvmArgs))
-				flags.add(arg);
+    private static boolean hasCollectorArg(List<String> args) {
+        for (String arg : args) {
+            if (collectorPattern.matcher(arg).matches())
+				return true;
         }
+        return false;
     }
 
     /**
@@ -290,7 +412,7 @@ public class Runner implements Callable<Process>, ProgressObservable {
     private void addJarArgs() throws JsonProcessingException {
         List<String> args = builder.getArgs();
 
-        String[] rawArgs = versionManifest.getMinecraftArguments().split(" +");
+        String[] rawArgs = plan.getMinecraftArguments().split(" +");
         StrSubstitutor substitutor = new StrSubstitutor(getCommandSubstitutions());
         for (String arg : rawArgs)
 			args.add(substitutor.replace(arg));
@@ -396,7 +518,7 @@ public class Runner implements Callable<Process>, ProgressObservable {
     private Map<String, String> getCommandSubstitutions() throws JsonProcessingException {
         Map<String, String> map = new HashMap<String, String>();
 
-        map.put("version_name", versionManifest.getId());
+        map.put("version_name", plan.getVersionId());
 
         map.put("auth_access_token", session.getAccessToken());
         map.put("auth_session", session.getSessionToken());
@@ -410,7 +532,7 @@ public class Runner implements Callable<Process>, ProgressObservable {
         map.put("game_directory", instance.getContentDir().getAbsolutePath());
         map.put("game_assets", virtualAssetsDir.getAbsolutePath());
         map.put("assets_root", launcher.getAssets().getDir().getAbsolutePath());
-        map.put("assets_index_name", versionManifest.getAssetsIndex());
+        map.put("assets_index_name", plan.getAssetsIndex());
 
         return map;
     }
@@ -0,0 +1,204 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.model.modpack;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import lombok.NonNull;
+import org.apache.commons.io.FilenameUtils;
+
+import java.util.*;
+
+/**
+ * Computes a hash for every directory of a package from the files under it,
+ * in the manner of a Merkle tree, so that a launcher can tell which parts of
+ * a package changed between versions by comparing a handful of hashes.
+ * </p>
+ * The root directory has the empty path and other directories are written
+ * with forward slashes and no trailing slash.
+ */
+public final class DirectoryHashes {
+
+    public static final String ROOT = "";
+
+    private DirectoryHashes() {
+    }
+
+    /**
+     * Compute the hash of every directory that has files under it.
+     *
+     * @param entries the manifest entries
+     * @return a map of directory paths to hashes
+     */
+    public static Map<String, String> compute(@NonNull List<ManifestEntry> entries) {
+        Map<String, SortedMap<String, String>> children = new HashMap<String, SortedMap<String, String>>();
+        children.put(ROOT, new TreeMap<String, String>());
+
+        for (ManifestEntry entry : entries) {
+            if (!(entry instanceof FileInstall)) {
+                continue;
+            }
+
+            FileInstall file = (FileInstall) entry;
+            String path = normalize(file.getTargetPath());
+            String dir = getParent(path);
+            getChildren(children, dir).put("f/" + FilenameUtils.getName(path),
+                    file.getImpliedVersion() + " " + file.isUserFile() + " " + describe(file.getWhen()));
+
+            // Make sure every directory above is listed
+            while (!dir.equals(ROOT)) {
+                dir = getParent(dir);
+                getChildren(children, dir);
+            }
+        }
+
+        // Hash the deepest directories first, so that each directory's
+        // subdirectories have been hashed by the time it is
+        List<String> dirs = new ArrayList<String>(children.keySet());
+        Collections.sort(dirs, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return getDepth(o2) - getDepth(o1);
+            }
+        });
+
+        Map<String, String> hashes = new HashMap<String, String>();
+        for (String dir : dirs) {
+            Hasher hasher = Hashing.sha1().newHasher();
+            for (Map.Entry<String, String> child : children.get(dir).entrySet()) {
+                hasher.putString(child.getKey(), Charsets.UTF_8);
+                hasher.putByte((byte) 0);
+                hasher.putString(child.getValue(), Charsets.UTF_8);
+                hasher.putByte((byte) '\n');
+            }
+            String hash = hasher.hash().toString();
+            hashes.put(dir, hash);
+            if (!dir.equals(ROOT)) {
+                children.get(getParent(dir)).put("d/" + FilenameUtils.getName(dir), hash);
+            }
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Find the directories whose hash is the same in both maps.
+     *
+     * @param previous the hashes of the installed version
+     * @param current the hashes of the new version
+     * @return the unchanged directories
+     */
+    public static Set<String> getUnchanged(@NonNull Map<String, String> previous, @NonNull Map<String, String> current) {
+        Set<String> unchanged = new HashSet<String>();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (entry.getValue().equals(previous.get(entry.getKey()))) {
+                unchanged.add(entry.getKey());
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * Test whether the given entry only installs files inside one of the
+     * given directories.
+     *
+     * @param entry the entry
+     * @param dirs the directories
+     * @return true if the entry is inside one of them
+     */
+    public static boolean isWithin(@NonNull ManifestEntry entry, @NonNull Set<String> dirs) {
+        return entry instanceof FileInstall && isWithin(((FileInstall) entry).getTargetPath(), dirs);
+    }
+
+    /**
+     * Test whether the given file is inside one of the given directories, at
+     * any depth.
+     *
+     * @param path the path of the file
+     * @param dirs the directories
+     * @return true if the file is inside one of them
+     */
+    public static boolean isWithin(@NonNull String path, @NonNull Set<String> dirs) {
+        if (dirs.isEmpty()) {
+            return false;
+        }
+
+        String dir = normalize(path);
+        do {
+            dir = getParent(dir);
+            if (dirs.contains(dir)) {
+                return true;
+            }
+        } while (!dir.equals(ROOT));
+
+        return false;
+    }
+
+    /**
+     * Describe a condition by the names of its features only, since the
+     * selection of each feature changes as the user picks them.
+     */
+    private static String describe(Condition condition) {
+        List<Feature> features;
+        if (condition instanceof RequireAny) {
+            features = ((RequireAny) condition).getFeatures();
+        } else if (condition instanceof RequireAll) {
+            features = ((RequireAll) condition).getFeatures();
+        } else {
+            return String.valueOf(condition);
+        }
+
+        StringBuilder builder = new StringBuilder(condition.getClass().getSimpleName());
+        if (features != null) {
+            for (Feature feature : features) {
+                builder.append(' ').append(feature.getName());
+            }
+        }
+        return builder.toString();
+    }
+
+    private static SortedMap<String, String> getChildren(Map<String, SortedMap<String, String>> children, String dir) {
+        SortedMap<String, String> map = children.get(dir);
+        if (map == null) {
+            map = new TreeMap<String, String>();
+            children.put(dir, map);
+        }
+        return map;
+    }
+
+    private static String normalize(String path) {
+        String normalized = FilenameUtils.normalizeNoEndSeparator(path);
+        if (normalized == null) {
+            throw new IllegalArgumentException("Invalid path: " + path);
+        }
+        normalized = FilenameUtils.separatorsToUnix(normalized);
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        return normalized;
+    }
+
+    private static String getParent(String path) {
+        int index = path.lastIndexOf('/');
+        return index == -1 ? ROOT : path.substring(0, index);
+    }
+
+    private static int getDepth(String path) {
+        if (path.equals(ROOT)) {
+            return 0;
+        }
+        int depth = 1;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+}
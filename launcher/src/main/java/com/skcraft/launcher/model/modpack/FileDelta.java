@@ -0,0 +1,22 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.model.modpack;
+
+import lombok.Data;
+
+/**
+ * A binary delta that turns an earlier version of a file, identified by its
+ * hash, into the version given by the owning {@link FileInstall}.
+ */
+@Data
+public class FileDelta {
+
+    private String from;
+    private String location;
+    private long size;
+
+}
@@ -7,12 +7,18 @@
 package com.skcraft.launcher.model.modpack;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
+import com.skcraft.launcher.install.DeltaPatcher;
+import com.skcraft.launcher.install.FileIndex;
 import com.skcraft.launcher.install.InstallLog;
 import com.skcraft.launcher.install.InstallLogFileMover;
+import com.skcraft.launcher.install.InstallLogObjectLinker;
+import com.skcraft.launcher.install.InstallTask;
 import com.skcraft.launcher.install.Installer;
+import com.skcraft.launcher.install.ObjectStore;
 import com.skcraft.launcher.install.UpdateCache;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -22,12 +28,14 @@ import org.apache.commons.io.FilenameUtils;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.List;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.skcraft.launcher.LauncherUtils.concat;
 
 @Data
 @EqualsAndHashCode(callSuper = false)
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class FileInstall extends ManifestEntry {
 
     private static HashFunction hf = Hashing.sha1();
@@ -37,6 +45,7 @@ public class FileInstall extends ManifestEntry {
     private String to;
     private long size;
     private boolean userFile;
+    private List<FileDelta> deltas;
 
     @JsonIgnore
     public String getImpliedVersion() {
@@ -48,6 +57,45 @@ public class FileInstall extends ManifestEntry {
         return checkNotNull(this.to != null ? this.to : location);
     }
 
+    @Override
+    public void prepare(@NonNull Installer installer, @NonNull File contentDir) throws IOException {
+        FileIndex index = installer.getFileIndex();
+        if (index == null || (getWhen() != null && !getWhen().matches())) {
+            return;
+        }
+
+        String targetPath = getTargetPath();
+        File targetFile = new File(contentDir, targetPath);
+        if (hash != null && targetFile.exists() && !isUserFile()) {
+            index.getHash(FilenameUtils.normalize(targetPath), targetFile);
+        }
+    }
+
+    @Override
+    public boolean keep(@NonNull Installer installer, @NonNull InstallLog log, @NonNull File contentDir) {
+        if (getWhen() != null && !getWhen().matches()) {
+            return true;
+        }
+
+        String targetPath = getTargetPath();
+        File targetFile = new File(contentDir, targetPath);
+        FileIndex index = installer.getFileIndex();
+        String key = FilenameUtils.normalize(targetPath);
+
+        if (!targetFile.exists()) {
+            return false;
+        }
+        if (hash != null && !isUserFile() && (index == null || !index.isUnchanged(key, targetFile))) {
+            return false;
+        }
+
+        if (index != null) {
+            index.retain(key);
+        }
+        log.add(to, to);
+        return true;
+    }
+
     @Override
     public void install(@NonNull Installer installer, @NonNull InstallLog log,
                         @NonNull UpdateCache cache, @NonNull File contentDir) throws IOException {
@@ -60,20 +108,90 @@ public class FileInstall extends ManifestEntry {
         String fileVersion = getImpliedVersion();
         URL url = concat(getManifest().getObjectsUrl(), getLocation());
 
-        if (shouldUpdate(cache, targetFile)) {
-            long size = this.size;
-            if (size <= 0) {
-                size = 10 * 1024;
+        FileIndex index = installer.getFileIndex();
+        String key = FilenameUtils.normalize(targetPath);
+
+        String existingHash = null;
+        if (hash != null && targetFile.exists() && !isUserFile()) {
+            if (index != null) {
+                existingHash = index.getHash(key, targetFile);
+            } else {
+                existingHash = Files.hash(targetFile, hf).toString();
+            }
+        }
+
+        if (shouldUpdate(cache, targetFile, existingHash)) {
+            if (index != null && hash != null && !isUserFile()) {
+                index.expect(key, targetFile, hash);
+            }
+
+            ObjectStore store = installer.getObjectStore();
+            boolean stored = store != null && ObjectStore.isValidHash(hash);
+            boolean copy = !isLinkable(targetPath);
+            if (stored && (store.contains(hash) || !store.markPending(hash))) {
+                installer.queue(new InstallLogObjectLinker(log, store, hash, null, targetFile, copy));
+                return;
+            }
+
+            File download;
+            File tempFile;
+            FileDelta delta = getDelta(existingHash);
+            if (delta != null) {
+                URL deltaUrl = concat(getManifest().getObjectsUrl(), delta.getLocation());
+                download = installer.getDownloader().download(deltaUrl, delta.getFrom(), delta.getSize(), to, null);
+                tempFile = new File(download.getPath() + ".patched");
+            } else {
+                download = tempFile = installer.getDownloader().download(url, fileVersion, size, to, hash);
+            }
+
+            InstallTask task;
+            if (stored) {
+                task = new InstallLogObjectLinker(log, store, hash, tempFile, targetFile, copy);
+            } else {
+                task = new InstallLogFileMover(log, tempFile, targetFile);
             }
 
-            File tempFile = installer.getDownloader().download(url, fileVersion, size, to);
-            installer.queue(new InstallLogFileMover(log, tempFile, targetFile));
+            if (delta != null) {
+                installer.queue(download, new DeltaPatcher(installer, targetFile, download, tempFile, hash, url, size, task));
+            } else {
+                installer.queue(download, task);
+            }
         } else {
             log.add(to, to);
         }
     }
 
-    private boolean shouldUpdate(UpdateCache cache, File targetFile) throws IOException {
+    /**
+     * Test whether the file can be hard linked from the object store. Only
+     * mod and library archives are, since nothing writes to those in place;
+     * configs and scripts are copied so that a mod changing one in one
+     * instance can't change it in every other instance and in the store.
+     *
+     * @param targetPath the path of the file within the instance
+     * @return true if the file can be linked
+     */
+    private boolean isLinkable(String targetPath) {
+        if (isUserFile()) {
+            return false;
+        }
+
+        String path = FilenameUtils.separatorsToUnix(FilenameUtils.normalize(targetPath)).toLowerCase();
+        return (path.startsWith("mods/") || path.startsWith("libraries/"))
+                && (path.endsWith(".jar") || path.endsWith(".zip"));
+    }
+
+    private FileDelta getDelta(String existingHash) {
+        if (existingHash != null && deltas != null && hash != null) {
+            for (FileDelta delta : deltas) {
+                if (existingHash.equalsIgnoreCase(delta.getFrom())) {
+                    return delta;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean shouldUpdate(UpdateCache cache, File targetFile, String existingHash) {
         if (targetFile.exists() && isUserFile()) {
             return false;
         }
@@ -82,11 +200,8 @@ public class FileInstall extends ManifestEntry {
             return true;
         }
 
-        if (hash != null) {
-            String existingHash = Files.hash(targetFile, hf).toString();
-            if (existingHash.equalsIgnoreCase(hash)) {
-                return false;
-            }
+        if (existingHash != null && existingHash.equalsIgnoreCase(hash)) {
+            return false;
         }
 
         return cache.mark(FilenameUtils.normalize(getTargetPath()), getImpliedVersion());
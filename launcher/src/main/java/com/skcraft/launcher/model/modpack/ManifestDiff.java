@@ -0,0 +1,139 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.model.modpack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Data;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.*;
+
+/**
+ * The changes to a manifest since an earlier version, so that a launcher
+ * that has the earlier manifest only has to download the entries that
+ * changed.
+ * </p>
+ * Diffs work on the JSON form of the manifest, so entries come out of
+ * {@link #apply(ObjectNode)} exactly as they were written by the builder.
+ * Entries are matched by the path they install to.
+ */
+@Data
+public class ManifestDiff {
+
+    private String baseVersion;
+    private List<String> removed = new ArrayList<String>();
+    private ObjectNode manifest;
+
+    /**
+     * Get the suffix that is added to the name of a manifest to name the
+     * diff from the given version to it.
+     *
+     * @param baseVersion the earlier version
+     * @return the suffix
+     */
+    public static String getSuffix(@NonNull String baseVersion) {
+        try {
+            return ".from-" + URLEncoder.encode(baseVersion, "UTF-8") + ".gz";
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create a diff between two versions of a manifest.
+     *
+     * @param base the earlier manifest
+     * @param current the new manifest
+     * @return the diff, or null if one can't be made between the two
+     */
+    public static ManifestDiff create(@NonNull ObjectNode base, @NonNull ObjectNode current) {
+        String baseVersion = base.path("version").textValue();
+        if (baseVersion == null) {
+            return null;
+        }
+
+        Map<String, JsonNode> previous = index(base);
+        Map<String, JsonNode> tasks = index(current);
+        if (previous == null || tasks == null) {
+            return null;
+        }
+
+        ArrayNode changed = JsonNodeFactory.instance.arrayNode();
+        for (Map.Entry<String, JsonNode> entry : tasks.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                changed.add(entry.getValue());
+            }
+        }
+
+        ManifestDiff diff = new ManifestDiff();
+        diff.setBaseVersion(baseVersion);
+        for (String key : previous.keySet()) {
+            if (!tasks.containsKey(key)) {
+                diff.getRemoved().add(key);
+            }
+        }
+        ObjectNode manifest = current.deepCopy();
+        manifest.set("tasks", changed);
+        diff.setManifest(manifest);
+        return diff;
+    }
+
+    /**
+     * Apply this diff to the earlier manifest.
+     *
+     * @param base the earlier manifest
+     * @return the new manifest
+     * @throws IOException if the diff is not from the given manifest
+     */
+    public ObjectNode apply(@NonNull ObjectNode base) throws IOException {
+        if (baseVersion == null || !baseVersion.equals(base.path("version").textValue())) {
+            throw new IOException("The diff is from version " + baseVersion + " but the manifest is version " +
+                    base.path("version").textValue());
+        }
+
+        Map<String, JsonNode> previous = index(base);
+        Map<String, JsonNode> changed = index(manifest);
+        if (previous == null || changed == null) {
+            throw new IOException("The manifest has entries without a path");
+        }
+
+        Set<String> removed = new HashSet<String>(this.removed);
+        ArrayNode tasks = JsonNodeFactory.instance.arrayNode();
+        for (Map.Entry<String, JsonNode> entry : previous.entrySet()) {
+            if (removed.contains(entry.getKey())) {
+                continue;
+            }
+            JsonNode replacement = changed.remove(entry.getKey());
+            tasks.add(replacement != null ? replacement : entry.getValue());
+        }
+        for (JsonNode task : changed.values()) {
+            tasks.add(task);
+        }
+
+        ObjectNode result = manifest.deepCopy();
+        result.set("tasks", tasks);
+        return result;
+    }
+
+    private static Map<String, JsonNode> index(ObjectNode manifest) {
+        Map<String, JsonNode> tasks = new LinkedHashMap<String, JsonNode>();
+        for (JsonNode task : manifest.path("tasks")) {
+            String key = task.has("to") ? task.path("to").textValue() : task.path("location").textValue();
+            if (key == null || tasks.put(key, task) != null) {
+                return null;
+            }
+        }
+        return tasks;
+    }
+
+}
@@ -33,6 +33,32 @@ public abstract class ManifestEntry {
     private Manifest manifest;
     private Condition when;
 
+    /**
+     * Do the work that can be done before {@link #install}, such as hashing
+     * files already on disk. This may be called for several entries at once
+     * from different threads.
+     *
+     * @param installer the installer
+     * @param contentDir the content directory
+     * @throws Exception on error
+     */
+    public void prepare(Installer installer, File contentDir) throws Exception {
+    }
+
+    /**
+     * Record that this entry is already installed and has not changed, if
+     * its files on disk still look the way they did when installed. Only
+     * file sizes and modification times are checked, not contents.
+     *
+     * @param installer the installer
+     * @param log the install log
+     * @param contentDir the content directory
+     * @return true if kept, false if the entry has to be installed again
+     */
+    public boolean keep(Installer installer, InstallLog log, File contentDir) {
+        return true;
+    }
+
     public abstract void install(Installer installer, InstallLog log, UpdateCache cache, File contentDir) throws Exception;
 
 }
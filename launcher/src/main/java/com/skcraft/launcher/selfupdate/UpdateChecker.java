@@ -39,7 +39,6 @@ public class UpdateChecker implements Callable<URL> {
             LatestVersionInfo versionInfo = HttpRequest.get(url)
                     .execute()
                     .expectResponseCode(200)
-                    .returnContent()
                     .asJson(LatestVersionInfo.class);
 
             ComparableVersion current = new ComparableVersion(launcher.getVersion());
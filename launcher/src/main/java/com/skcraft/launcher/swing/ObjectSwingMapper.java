@@ -93,6 +93,22 @@ public class ObjectSwingMapper {
         });
     }
 
+    public <V> void map(@NonNull final JComboBox<V> combo, String name, final Class<V> clazz) {
+        final MutatorAccessorField<V> field = getField(name, clazz);
+
+        add(new FieldMapping() {
+            @Override
+            public void copyFromObject() {
+                combo.setSelectedItem(field.get());
+            }
+
+            @Override
+            public void copyFromSwing() {
+                field.set(clazz.cast(combo.getSelectedItem()));
+            }
+        });
+    }
+
     public static interface FieldMapping {
         void copyFromObject();
         void copyFromSwing();
@@ -8,6 +8,7 @@ package com.skcraft.launcher.update;
 
 import static com.skcraft.launcher.LauncherUtils.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
@@ -18,11 +19,21 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
 
 import javax.swing.SwingUtilities;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
 import com.skcraft.launcher.AssetsRoot;
 import com.skcraft.launcher.Instance;
 import com.skcraft.launcher.Launcher;
@@ -30,6 +41,7 @@ import com.skcraft.launcher.LauncherException;
 import com.skcraft.launcher.dialog.FeatureSelectionDialog;
 import com.skcraft.launcher.dialog.ProgressDialog;
 import com.skcraft.launcher.install.FeatureCache;
+import com.skcraft.launcher.install.FileIndex;
 import com.skcraft.launcher.install.FileMover;
 import com.skcraft.launcher.install.InstallLog;
 import com.skcraft.launcher.install.Installer;
@@ -38,8 +50,10 @@ import com.skcraft.launcher.model.minecraft.Asset;
 import com.skcraft.launcher.model.minecraft.AssetsIndex;
 import com.skcraft.launcher.model.minecraft.Library;
 import com.skcraft.launcher.model.minecraft.VersionManifest;
+import com.skcraft.launcher.model.modpack.DirectoryHashes;
 import com.skcraft.launcher.model.modpack.Feature;
 import com.skcraft.launcher.model.modpack.Manifest;
+import com.skcraft.launcher.model.modpack.ManifestDiff;
 import com.skcraft.launcher.model.modpack.ManifestEntry;
 import com.skcraft.launcher.persistence.Persistence;
 import com.skcraft.launcher.util.Environment;
@@ -64,6 +78,8 @@ public abstract class BaseUpdater {
 
     private static final long JAR_SIZE_ESTIMATE = 5 * 1024 * 1024;
     private static final long LIBRARY_SIZE_ESTIMATE = 3 * 1024 * 1024;
+    private static final int MAX_PREPARE_THREADS = 8;
+    private static final ObjectMapper mapper = new ObjectMapper();
 
     private final Launcher launcher;
     private final Environment environment = Environment.getInstance();
@@ -83,21 +99,19 @@ public abstract class BaseUpdater {
         final File contentDir = instance.getContentDir();
         final File logPath = new File(instance.getDir(), "install_log.json");
         final File cachePath = new File(instance.getDir(), "update_cache.json");
+        final File indexPath = new File(instance.getDir(), "file_index.json");
         final File featuresPath = new File(instance.getDir(), "features.json");
 
         final InstallLog previousLog = Persistence.read(logPath, InstallLog.class);
         final InstallLog currentLog = new InstallLog();
         currentLog.setBaseDir(contentDir);
         final UpdateCache updateCache = Persistence.read(cachePath, UpdateCache.class);
+        final FileIndex fileIndex = Persistence.read(indexPath, FileIndex.class);
+        fileIndex.setDeepVerify(launcher.getConfig().isDeepVerify());
+        installer.setFileIndex(fileIndex);
         final FeatureCache featuresCache = Persistence.read(featuresPath, FeatureCache.class);
 
-        Manifest manifest = HttpRequest
-                .get(instance.getManifestURL())
-                .execute()
-                .expectResponseCode(200)
-                .returnContent()
-                .saveContent(instance.getManifestPath())
-                .asJson(Manifest.class);
+        Manifest manifest = readManifest(instance);
 
         if (manifest.getMinimumVersion() > Launcher.PROTOCOL_VERSION) {
             throw new LauncherException("Update required", SharedLocale.tr("errors.updateRequiredError"));
@@ -130,7 +144,33 @@ public abstract class BaseUpdater {
             }
         }
 
+        // Skip the parts of the package that haven't changed since the last
+        // update, going by the directory hashes of the two versions
+        StringBuilder selection = new StringBuilder();
+        for (Feature feature : features) {
+            selection.append(feature.getName()).append('=').append(feature.isSelected()).append('\n');
+        }
+        final String selected = selection.toString();
+        final Map<String, String> directoryHashes = manifest.getDirectoryHashes();
+        Set<String> unchanged = fileIndex.getUnchangedDirectories(directoryHashes, selected);
+
+        List<ManifestEntry> changed = new ArrayList<ManifestEntry>();
         for (ManifestEntry entry : manifest.getTasks()) {
+            // Files in an unchanged directory that were deleted or edited since
+            // are installed again
+            if (!DirectoryHashes.isWithin(entry, unchanged) || !entry.keep(installer, currentLog, contentDir)) {
+                changed.add(entry);
+            }
+        }
+
+        if (!unchanged.isEmpty()) {
+            log.info("Skipping " + (manifest.getTasks().size() - changed.size()) + " of " +
+                    manifest.getTasks().size() + " files, which haven't changed since the last update");
+        }
+
+        prepareEntries(installer, changed, contentDir);
+
+        for (ManifestEntry entry : changed) {
             entry.install(installer, currentLog, updateCache, contentDir);
         }
 
@@ -147,6 +187,9 @@ public abstract class BaseUpdater {
 
                 writeDataFile(logPath, currentLog);
                 writeDataFile(cachePath, updateCache);
+                fileIndex.setInstalled(directoryHashes, selected);
+                fileIndex.commit();
+                writeDataFile(indexPath, fileIndex);
                 writeDataFile(featuresPath, featuresCache);
             }
         });
@@ -154,6 +197,162 @@ public abstract class BaseUpdater {
         return manifest;
     }
 
+    /**
+     * Download the manifest of an instance and save it to the instance.
+     * </p>
+     * If the manifest saved last time has a version, a diff from that version
+     * is tried first, and then the gzipped manifest, before falling back to
+     * the plain one.
+     *
+     * @param instance the instance
+     * @return the manifest
+     * @throws IOException thrown on I/O error
+     * @throws InterruptedException thrown on interruption
+     */
+    private Manifest readManifest(@NonNull Instance instance) throws IOException, InterruptedException {
+        URL url = instance.getManifestURL();
+        File path = instance.getManifestPath();
+        ObjectNode tree = null;
+        Manifest manifest = null;
+
+        ObjectNode previous = readTree(path);
+        if (previous != null && previous.path("version").isTextual()) {
+            String version = previous.path("version").textValue();
+            byte[] data = getIfExists(new URL(url + ManifestDiff.getSuffix(version)), true);
+            if (data != null) {
+                try {
+                    tree = mapper.readValue(data, ManifestDiff.class).apply(previous);
+                    manifest = mapper.treeToValue(tree, Manifest.class);
+                    if (manifest.getDirectoryHashes() == null ||
+                            !manifest.getDirectoryHashes().equals(DirectoryHashes.compute(manifest.getTasks()))) {
+                        throw new IOException("The manifest does not match its directory hashes");
+                    }
+                    log.info("Updated the manifest from " + version + " using a diff");
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to apply the manifest diff from " + version, e);
+                    tree = null;
+                    manifest = null;
+                }
+            }
+        }
+
+        if (tree == null) {
+            byte[] data = getIfExists(new URL(url + ".gz"), true);
+            if (data != null) {
+                try {
+                    tree = (ObjectNode) mapper.readTree(data);
+                    manifest = mapper.treeToValue(tree, Manifest.class);
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to read the gzipped manifest", e);
+                    tree = null;
+                    manifest = null;
+                }
+            }
+        }
+
+        if (tree == null) {
+            byte[] data = HttpRequest.get(url)
+                    .execute()
+                    .expectResponseCode(200)
+                    .returnContent()
+                    .asBytes();
+            tree = (ObjectNode) mapper.readTree(data);
+            manifest = mapper.treeToValue(tree, Manifest.class);
+        }
+
+        path.getAbsoluteFile().getParentFile().mkdirs();
+        mapper.writeValue(path, tree);
+        return manifest;
+    }
+
+    private static ObjectNode readTree(File path) {
+        if (!path.exists()) {
+            return null;
+        }
+
+        try {
+            JsonNode node = mapper.readTree(path);
+            return node instanceof ObjectNode ? (ObjectNode) node : null;
+        } catch (IOException e) {
+            log.log(Level.INFO, "Failed to read " + path.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Download one of the optional forms of the manifest. Since the plain
+     * manifest can always be used instead, any failure (a missing file, a
+     * server or proxy error, or a corrupt body) only means that it isn't
+     * available.
+     *
+     * @param url the URL
+     * @param gzipped true to decompress the body
+     * @return the data, or null if it couldn't be downloaded
+     * @throws InterruptedException thrown on interruption
+     */
+    private static byte[] getIfExists(URL url, boolean gzipped) throws InterruptedException {
+        try {
+            HttpRequest request = HttpRequest.get(url).execute();
+            int code = request.getResponseCode();
+            if (code != 200) {
+                request.close();
+                log.info("Not using " + url + " (HTTP " + code + ")");
+                return null;
+            }
+
+            byte[] data = request.returnContent().asBytes();
+            if (gzipped) {
+                data = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(data)));
+            }
+            return data;
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Not using " + url, e);
+            return null;
+        }
+    }
+
+    /**
+     * Prepare the given entries on several threads, so that the files already
+     * on disk are hashed in parallel. Entries are still installed one by one
+     * and in order afterwards, so the download queue and install log come
+     * out the same as before.
+     *
+     * @param installer the installer
+     * @param entries the entries
+     * @param contentDir the content directory
+     * @throws InterruptedException thrown on interruption
+     */
+    private void prepareEntries(@NonNull final Installer installer, @NonNull List<ManifestEntry> entries,
+                                @NonNull final File contentDir) throws InterruptedException {
+        int threads = Math.max(1, Math.min(MAX_PREPARE_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final ManifestEntry entry : entries) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        entry.prepare(installer, contentDir);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // The entry will run into the same problem when it is
+                    // installed, which is where it gets reported
+                    log.log(Level.FINE, "Failed to prepare a manifest entry", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     protected void installJar(@NonNull Installer installer,
                               @NonNull File jarFile,
                               @NonNull URL url) throws InterruptedException {
@@ -162,7 +361,7 @@ public abstract class BaseUpdater {
             List<File> targets = new ArrayList<File>();
 
             File tempFile = installer.getDownloader().download(url, "", JAR_SIZE_ESTIMATE, jarFile.getName());
-            installer.queue(new FileMover(tempFile, jarFile));
+            installer.queue(tempFile, new FileMover(tempFile, jarFile));
             log.info("Installing " + jarFile.getName() + " from " + url);
         }
     }
@@ -171,7 +370,7 @@ public abstract class BaseUpdater {
                                  @NonNull VersionManifest versionManifest,
                                  @NonNull URL indexUrl,
                                  @NonNull List<URL> sources) throws IOException, InterruptedException {
-        AssetsRoot assetsRoot = launcher.getAssets();
+        final AssetsRoot assetsRoot = launcher.getAssets();
 
         AssetsIndex index = HttpRequest
                 .get(indexUrl)
@@ -181,17 +380,25 @@ public abstract class BaseUpdater {
                 .saveContent(assetsRoot.getIndexPath(versionManifest))
                 .asJson(AssetsIndex.class);
 
-        // Keep track of duplicates
-        Set<String> downloading = new HashSet<String>();
+        // Keep track of duplicates, which are common between indexes too
+        Set<String> seen = new HashSet<String>();
+        List<String> found = new ArrayList<String>();
+        final List<String> fetched = new ArrayList<String>();
 
         for (Map.Entry<String, Asset> entry : index.getObjects().entrySet()) {
             checkInterrupted();
 
             String hash = entry.getValue().getHash();
+            if (assetsRoot.isKnownPresent(entry.getValue()) || !seen.add(hash)) {
+                continue;
+            }
+
             String path = String.format("%s/%s", hash.subSequence(0, 2), hash);
             File targetFile = assetsRoot.getObjectPath(entry.getValue());
 
-            if (!targetFile.exists() && !downloading.contains(path)) {
+            if (targetFile.exists()) {
+                found.add(hash);
+            } else {
                 List<URL> urls = new ArrayList<URL>();
                 for (URL sourceUrl : sources) {
                     try {
@@ -202,12 +409,20 @@ public abstract class BaseUpdater {
                 }
 
                 File tempFile = installer.getDownloader().download(
-                        urls, "", entry.getValue().getSize(), entry.getKey());
-                installer.queue(new FileMover(tempFile, targetFile));
+                        urls, "", entry.getValue().getSize(), entry.getKey(), hash);
+                installer.queue(tempFile, new FileMover(tempFile, targetFile));
                 log.info("Fetching " + path + " from " + urls);
-                downloading.add(path);
+                fetched.add(hash);
             }
         }
+
+        assetsRoot.markPresent(found);
+        executeOnCompletion.add(new Runnable() {
+            @Override
+            public void run() {
+                assetsRoot.markPresent(fetched);
+            }
+        });
     }
 
     protected void installLibraries(@NonNull Installer installer,
@@ -234,7 +449,7 @@ public abstract class BaseUpdater {
 
                     File tempFile = installer.getDownloader().download(urls, "", LIBRARY_SIZE_ESTIMATE,
                             library.getName() + ".jar");
-                    installer.queue(new FileMover( tempFile, targetFile));
+                    installer.queue(tempFile, new FileMover(tempFile, targetFile));
                     log.info("Fetching " + path + " from " + urls);
                 }
             }
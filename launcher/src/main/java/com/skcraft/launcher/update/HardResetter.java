@@ -45,6 +45,9 @@ public class HardResetter implements Callable<Instance>, ProgressObservable {
         Persistence.commitAndForget(instance);
 
         new File(instance.getDir(), "update_cache.json").delete();
+        new File(instance.getDir(), "file_index.json").delete();
+        instance.getLaunchPlanPath().delete();
+        removeDir(instance.getClassDataDir());
 
         removeDir(new File(instance.getContentDir(), "config"));
         removeDir(new File(instance.getContentDir(), "mods"));
@@ -110,7 +110,7 @@ public class UpdateManager {
                 }
             }, SwingExecutor.INSTANCE);
 
-            ProgressDialog.showProgress(window, future, SharedLocale.tr("launcher.selfUpdatingTitle"), SharedLocale.tr("launcher.selfUpdatingStatus"));
+            ProgressDialog.showProgress(window, future, SharedLocale.tr("launcher.selfUpdatingTitle"), SharedLocale.tr("launcher.selfUpdatingStatus"), true);
             SwingHelper.addErrorDialogCallback(window, future);
         } else {
 			propertySupport.firePropertyChange("pendingUpdate", false, false);
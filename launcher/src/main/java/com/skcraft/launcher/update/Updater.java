@@ -23,12 +23,12 @@ import org.apache.commons.lang.StringUtils;
 import com.beust.jcommander.internal.Maps;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.skcraft.concurrency.DefaultProgress;
-import com.skcraft.concurrency.ProgressFilter;
 import com.skcraft.concurrency.ProgressObservable;
 import com.skcraft.launcher.Instance;
 import com.skcraft.launcher.Launcher;
 import com.skcraft.launcher.LauncherException;
 import com.skcraft.launcher.install.Installer;
+import com.skcraft.launcher.install.ObjectStore;
 import com.skcraft.launcher.model.minecraft.VersionManifest;
 import com.skcraft.launcher.model.modpack.Manifest;
 import com.skcraft.launcher.persistence.Persistence;
@@ -64,6 +64,10 @@ public class Updater extends BaseUpdater implements Callable<Instance>, Progress
         super(launcher);
 
         this.installer = new Installer(launcher.getInstallerDir());
+        this.installer.setObjectStore(new ObjectStore(launcher.getObjectsDir()));
+        this.installer.getDownloader().setThreadCount(launcher.getConfig().getDownloadThreads());
+        this.installer.getDownloader().setMaxThreadCount(launcher.getConfig().getDownloadMaxThreads());
+        this.installer.getDownloader().setHedgeDelay(launcher.getConfig().getDownloadHedgeDelay());
         this.launcher = launcher;
         this.instance = instance;
 
@@ -198,11 +202,10 @@ public class Updater extends BaseUpdater implements Callable<Instance>, Progress
         installAssets(installer, version, launcher.propUrl("assetsIndexUrl", version.getAssetsIndex()), assetsSources);
 
         log.info("Executing download phase...");
-        progress = ProgressFilter.between(installer.getDownloader(), 0, 0.98);
+        progress = installer;
         installer.download();
 
         log.info("Executing install phase...");
-        progress = ProgressFilter.between(installer, 0.98, 1);
         installer.execute();
 
         log.info("Completing...");
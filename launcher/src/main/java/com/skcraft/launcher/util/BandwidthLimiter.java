@@ -0,0 +1,100 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.util;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A token bucket that caps the combined rate of every transfer sharing it.
+ * </p>
+ * The rate can be changed at any time and takes effect immediately for
+ * transfers already in progress. A rate of zero means no limit.
+ */
+public class BandwidthLimiter {
+
+    public static final BandwidthLimiter INSTANCE = new BandwidthLimiter();
+
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final long MIN_CAPACITY = 16 * 1024;
+
+    private long rate;
+    private long capacity;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Create a new limiter with no limit.
+     */
+    public BandwidthLimiter() {
+    }
+
+    /**
+     * Create a new limiter.
+     *
+     * @param bytesPerSecond the rate in bytes per second, or 0 for no limit
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    /**
+     * Get the current rate.
+     *
+     * @return the rate in bytes per second, or 0 if there is no limit
+     */
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * Change the rate.
+     *
+     * @param bytesPerSecond the rate in bytes per second, or 0 for no limit
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        checkArgument(bytesPerSecond >= 0, "bytesPerSecond >= 0");
+        refill(System.nanoTime());
+        rate = bytesPerSecond;
+        capacity = Math.max(MIN_CAPACITY, bytesPerSecond * BURST_NANOS / TimeUnit.SECONDS.toNanos(1));
+        tokens = Math.min(tokens, capacity);
+        notifyAll();
+    }
+
+    /**
+     * Wait until the given number of bytes may be transferred.
+     *
+     * @param bytes the number of bytes
+     * @throws InterruptedException on interruption
+     */
+    public synchronized void acquire(int bytes) throws InterruptedException {
+        while (rate > 0) {
+            long now = System.nanoTime();
+            refill(now);
+
+            // A read larger than the bucket goes through once the bucket is
+            // full, leaving it in debt so the average still holds
+            if (tokens >= Math.min(bytes, capacity)) {
+                tokens -= bytes;
+                return;
+            }
+
+            double needed = Math.min(bytes, capacity) - tokens;
+            long waitNanos = Math.max(1, (long) (needed * TimeUnit.SECONDS.toNanos(1) / rate));
+            TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+        }
+    }
+
+    private void refill(long now) {
+        if (rate > 0) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+        lastRefill = now;
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.util;
+
+import com.google.common.io.Files;
+import lombok.NonNull;
+
+import java.io.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Creates and applies binary deltas that turn one version of a file into
+ * another.
+ * </p>
+ * A delta is a deflated list of instructions that either copy a run of
+ * bytes from the old file or insert new bytes. Matching runs are found with
+ * a rolling hash over fixed size blocks of the old file, in the manner of
+ * rsync and xdelta, so content that has only moved is still found.
+ */
+public final class BinaryDelta {
+
+    private static final int MAGIC = 0x534b4431; // SKD1
+    private static final int OP_END = 0;
+    private static final int OP_COPY = 1;
+    private static final int OP_INSERT = 2;
+    private static final int MIN_BLOCK_SIZE = 32;
+    private static final int MAX_BLOCKS = 1 << 20;
+    private static final int PRIME = 31;
+    private static final int COPY_BUFFER_SIZE = 1024 * 64;
+
+    private BinaryDelta() {
+    }
+
+    /**
+     * Create a delta.
+     *
+     * @param base the old file
+     * @param target the new file
+     * @param out the stream to write the delta to, which is not closed
+     * @throws IOException on I/O error
+     */
+    public static void create(@NonNull File base, @NonNull File target, @NonNull OutputStream out) throws IOException {
+        create(Files.toByteArray(base), Files.toByteArray(target), out);
+    }
+
+    /**
+     * Create a delta.
+     *
+     * @param base the old contents
+     * @param target the new contents
+     * @param out the stream to write the delta to, which is not closed
+     * @throws IOException on I/O error
+     */
+    public static void create(@NonNull byte[] base, @NonNull byte[] target, @NonNull OutputStream out) throws IOException {
+        DeflaterOutputStream deflater = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_COMPRESSION));
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(deflater));
+        data.writeInt(MAGIC);
+        writeVarLong(data, base.length);
+        writeVarLong(data, target.length);
+
+        int blockSize = Math.max(MIN_BLOCK_SIZE, base.length / MAX_BLOCKS + 1);
+        int[] index = createIndex(base, blockSize);
+        int mask = index.length - 1;
+        int outFactor = power(blockSize - 1);
+
+        int literalStart = 0;
+        int i = 0;
+        int h = target.length >= blockSize ? hash(target, 0, blockSize) : 0;
+        while (i + blockSize <= target.length) {
+            int candidate = index[mix(h) & mask] - 1;
+            if (candidate >= 0 && regionMatches(base, candidate, target, i, blockSize)) {
+                // Grow the match in both directions as far as it goes
+                int from = candidate;
+                int to = i;
+                while (to > literalStart && from > 0 && base[from - 1] == target[to - 1]) {
+                    from--;
+                    to--;
+                }
+                int length = i + blockSize - to;
+                while (to + length < target.length && from + length < base.length
+                        && base[from + length] == target[to + length]) {
+                    length++;
+                }
+
+                writeInsert(data, target, literalStart, to);
+                data.write(OP_COPY);
+                writeVarLong(data, from);
+                writeVarLong(data, length);
+
+                i = to + length;
+                literalStart = i;
+                if (i + blockSize <= target.length) {
+                    h = hash(target, i, blockSize);
+                }
+                continue;
+            }
+
+            if (i + blockSize < target.length) {
+                h = (h - value(target[i]) * outFactor) * PRIME + value(target[i + blockSize]);
+            }
+            i++;
+        }
+
+        writeInsert(data, target, literalStart, target.length);
+        data.write(OP_END);
+        data.flush();
+        deflater.finish();
+    }
+
+    /**
+     * Apply a delta.
+     *
+     * @param base the old file
+     * @param delta the delta
+     * @param out the stream to write the new contents to, which is not closed
+     * @throws IOException on I/O error or if the delta doesn't fit the file
+     */
+    public static void apply(@NonNull File base, @NonNull InputStream delta, @NonNull OutputStream out) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(new InflaterInputStream(delta)));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a delta file");
+        }
+
+        long baseLength = readVarLong(data);
+        long targetLength = readVarLong(data);
+        if (baseLength != base.length()) {
+            throw new IOException("Delta expects a " + baseLength + " byte file but " +
+                    base.getName() + " is " + base.length() + " bytes");
+        }
+
+        RandomAccessFile file = new RandomAccessFile(base, "r");
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long written = 0;
+            int op;
+            while ((op = data.read()) != OP_END) {
+                long length;
+                if (op == OP_COPY) {
+                    long offset = readVarLong(data);
+                    length = readVarLong(data);
+                    if (offset < 0 || length < 0 || offset + length > baseLength) {
+                        throw new IOException("Delta copies past the end of the file");
+                    }
+                    file.seek(offset);
+                    for (long left = length; left > 0; ) {
+                        int len = (int) Math.min(buffer.length, left);
+                        file.readFully(buffer, 0, len);
+                        out.write(buffer, 0, len);
+                        left -= len;
+                    }
+                } else if (op == OP_INSERT) {
+                    length = readVarLong(data);
+                    for (long left = length; left > 0; ) {
+                        int len = (int) Math.min(buffer.length, left);
+                        data.readFully(buffer, 0, len);
+                        out.write(buffer, 0, len);
+                        left -= len;
+                    }
+                } else {
+                    throw new IOException("Unexpected delta instruction " + op);
+                }
+                written += length;
+            }
+
+            if (written != targetLength) {
+                throw new IOException("Delta produced " + written + " bytes but should have produced " + targetLength);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static int[] createIndex(byte[] base, int blockSize) {
+        int blocks = base.length / blockSize;
+        int size = Integer.highestOneBit(Math.max(1024, blocks * 2 - 1)) << 1;
+        int[] index = new int[size];
+        int mask = size - 1;
+        for (int offset = 0; offset + blockSize <= base.length; offset += blockSize) {
+            int slot = mix(hash(base, offset, blockSize)) & mask;
+            if (index[slot] == 0) {
+                index[slot] = offset + 1;
+            }
+        }
+        return index;
+    }
+
+    private static void writeInsert(DataOutputStream data, byte[] target, int start, int end) throws IOException {
+        if (end > start) {
+            data.write(OP_INSERT);
+            writeVarLong(data, end - start);
+            data.write(target, start, end - start);
+        }
+    }
+
+    private static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        if (aOffset + length > a.length || bOffset + length > b.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] data, int offset, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = h * PRIME + value(data[offset + i]);
+        }
+        return h;
+    }
+
+    private static int power(int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= PRIME;
+        }
+        return result;
+    }
+
+    private static int value(byte b) {
+        return (b & 0xff) + 1;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed delta");
+    }
+
+}
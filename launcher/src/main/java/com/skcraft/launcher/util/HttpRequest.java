@@ -17,9 +17,11 @@ import java.io.Closeable;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
@@ -33,8 +35,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.skcraft.concurrency.ProgressObservable;
 
@@ -50,6 +55,17 @@ public class HttpRequest implements Closeable, ProgressObservable {
 
     private static final int READ_TIMEOUT = 1000 * 60 * 10;
     private static final int READ_BUFFER_SIZE = 1024 * 8;
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes\\s+(\\d+)-(\\d+)");
+    private static final int MAX_IDLE_CONNECTIONS_PER_HOST = 16;
+    private static final int MAX_PRESIZED_LENGTH = 1024 * 1024 * 64;
+
+    static {
+        // HttpURLConnection keeps finished connections around for reuse, but
+        // only a handful per host unless told otherwise, and it reads this once
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS_PER_HOST));
+        }
+    }
 
     private final ObjectMapper mapper = new ObjectMapper();
     private final Map<String, String> headers = new HashMap<String, String>();
@@ -60,8 +76,13 @@ public class HttpRequest implements Closeable, ProgressObservable {
     private byte[] body;
     private HttpURLConnection conn;
     private InputStream inputStream;
+    private boolean drained;
+    private boolean closed;
+    private BandwidthLimiter limiter;
 
+    @Getter
     private long contentLength = -1;
+    @Getter
     private long readBytes = 0;
 
     /**
@@ -112,6 +133,40 @@ public class HttpRequest implements Closeable, ProgressObservable {
         return this;
     }
 
+    /**
+     * Request only part of the resource, starting at the given byte offset
+     * and continuing to the end.
+     *
+     * @param start the offset of the first byte
+     * @return this object
+     */
+    public HttpRequest range(long start) {
+        return header("Range", "bytes=" + start + "-");
+    }
+
+    /**
+     * Request only part of the resource.
+     *
+     * @param start the offset of the first byte
+     * @param end   the offset of the last byte, inclusive
+     * @return this object
+     */
+    public HttpRequest range(long start, long end) {
+        return header("Range", "bytes=" + start + "-" + end);
+    }
+
+    /**
+     * Throttle the body saved by {@link #saveContent(OutputStream)} with the
+     * given limiter.
+     *
+     * @param limiter the limiter, or null for no limit
+     * @return this object
+     */
+    public HttpRequest limit(BandwidthLimiter limiter) {
+        this.limiter = limiter;
+        return this;
+    }
+
     /**
      * Execute the request.
      * <p/>
@@ -155,7 +210,9 @@ public class HttpRequest implements Closeable, ProgressObservable {
                 out.close();
             }
 
-            inputStream = conn.getResponseCode() == HttpURLConnection.HTTP_OK ?
+            int responseCode = conn.getResponseCode();
+            drained = method.equals("HEAD"); // Nothing to read
+            inputStream = responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_PARTIAL ?
                     conn.getInputStream() : conn.getErrorStream();
 
             successful = true;
@@ -202,6 +259,85 @@ public class HttpRequest implements Closeable, ProgressObservable {
         return conn.getResponseCode();
     }
 
+    /**
+     * Get the value of a response header.
+     *
+     * @param name the header name
+     * @return the value, or null if not present
+     */
+    public String getHeaderField(String name) {
+        if (conn == null) {
+            throw new IllegalArgumentException("No connection has been made");
+        }
+
+        return conn.getHeaderField(name);
+    }
+
+    /**
+     * Get the offset of the first byte of a partial response.
+     *
+     * @return the offset, or -1 if there is no valid Content-Range header
+     */
+    public long getRangeStart() {
+        String range = getHeaderField("Content-Range");
+        if (range != null) {
+            Matcher m = CONTENT_RANGE_PATTERN.matcher(range);
+            if (m.find()) {
+                try {
+                    return Long.parseLong(m.group(1));
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get a validator for the resource that can be sent in an If-Range
+     * header, which is a strong ETag if there is one or else the
+     * Last-Modified date.
+     *
+     * @return the validator, or null if there is none
+     */
+    public String getValidator() {
+        String etag = getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+
+        return getHeaderField("Last-Modified");
+    }
+
+    /**
+     * Get the length of the requested entity, which is the total length of the
+     * resource for a partial response.
+     *
+     * @return the length, or -1 if the server did not say
+     */
+    public long getEntityLength() {
+        String range = getHeaderField("Content-Range");
+        if (range != null) {
+            int slash = range.lastIndexOf('/');
+            if (slash >= 0) {
+                try {
+                    return Long.parseLong(range.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+
+        try {
+            String field = getHeaderField("Content-Length");
+            if (field != null) {
+                return Long.parseLong(field);
+            }
+        } catch (NumberFormatException e) {
+        }
+
+        return -1;
+    }
+
     /**
      * Get the input stream.
      *
@@ -223,19 +359,77 @@ public class HttpRequest implements Closeable, ProgressObservable {
             throw new IllegalArgumentException("No input stream available");
         }
 
+        readContentLength();
+
         try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            int b = 0;
-            while ((b = inputStream.read()) != -1) {
+            // Size the buffer up front when we know how much is coming
+            int initialSize = contentLength >= 0 && contentLength <= MAX_PRESIZED_LENGTH ?
+                    (int) contentLength : READ_BUFFER_SIZE;
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(initialSize);
+            byte[] data = new byte[READ_BUFFER_SIZE];
+            int len;
+            while ((len = inputStream.read(data, 0, READ_BUFFER_SIZE)) != -1) {
+                bos.write(data, 0, len);
+                readBytes += len;
                 checkInterrupted();
-                bos.write(b);
             }
+            drained = true;
             return new BufferedResponse(bos.toByteArray());
         } finally {
             close();
         }
     }
 
+    /**
+     * Deserialize the response from a JSON payload as it arrives, without
+     * buffering it in memory first.
+     *
+     * @param cls the class
+     * @return the object
+     * @throws java.io.IOException  on I/O error
+     * @throws InterruptedException on interruption
+     */
+    public <T> T asJson(Class<T> cls) throws IOException, InterruptedException {
+        return asJson(mapper.getTypeFactory().constructType(cls));
+    }
+
+    /**
+     * Deserialize the response from a JSON payload as it arrives, without
+     * buffering it in memory first.
+     *
+     * @param type the type reference
+     * @return the object
+     * @throws java.io.IOException  on I/O error
+     * @throws InterruptedException on interruption
+     */
+    public <T> T asJson(TypeReference<T> type) throws IOException, InterruptedException {
+        return asJson(mapper.getTypeFactory().constructType(type));
+    }
+
+    private <T> T asJson(JavaType type) throws IOException, InterruptedException {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("No input stream available");
+        }
+
+        readContentLength();
+
+        CountingInputStream in = new CountingInputStream(inputStream);
+        try {
+            // The mapper closes the stream at the end, which lets the
+            // connection be reused once any trailing bytes are skipped
+            T result = mapper.readValue(in, type);
+            drained = true;
+            return result;
+        } catch (InterruptedIOException e) {
+            if (in.interrupted) {
+                throw new InterruptedException();
+            }
+            throw e;
+        } finally {
+            close();
+        }
+    }
+
     /**
      * Save the result to a file.
      *
@@ -245,11 +439,25 @@ public class HttpRequest implements Closeable, ProgressObservable {
      * @throws InterruptedException on interruption
      */
     public HttpRequest saveContent(File file) throws IOException, InterruptedException {
+        return saveContent(file, false);
+    }
+
+    /**
+     * Save the result to a file, optionally appending to the existing contents
+     * (as when resuming a download with {@link #range(long)}).
+     *
+     * @param file   the file
+     * @param append true to append to the file
+     * @return this object
+     * @throws java.io.IOException  on I/O error
+     * @throws InterruptedException on interruption
+     */
+    public HttpRequest saveContent(File file, boolean append) throws IOException, InterruptedException {
         FileOutputStream fos = null;
         BufferedOutputStream bos = null;
 
         try {
-            fos = new FileOutputStream(file);
+            fos = new FileOutputStream(file, append);
             bos = new BufferedOutputStream(fos);
 
             saveContent(bos);
@@ -272,12 +480,17 @@ public class HttpRequest implements Closeable, ProgressObservable {
     public HttpRequest saveContent(OutputStream out) throws IOException, InterruptedException {
         BufferedInputStream bis;
 
+        readContentLength();
+
+        // For a partial response, measure progress against the whole resource
+        // so that resumed downloads don't start again from zero
         try {
-            String field = conn.getHeaderField("Content-Length");
+            String field = conn.getHeaderField("Content-Range");
             if (field != null) {
-                long len = Long.parseLong(field);
-                if (len >= 0) { // Let's just not deal with really big numbers
-                    contentLength = len;
+                Matcher m = CONTENT_RANGE_PATTERN.matcher(field);
+                if (m.find()) {
+                    readBytes = Long.parseLong(m.group(1));
+                    contentLength = Long.parseLong(m.group(2)) + 1;
                 }
             }
         } catch (NumberFormatException e) {
@@ -289,10 +502,14 @@ public class HttpRequest implements Closeable, ProgressObservable {
             byte[] data = new byte[READ_BUFFER_SIZE];
             int len = 0;
             while ((len = bis.read(data, 0, READ_BUFFER_SIZE)) >= 0) {
+                if (limiter != null) {
+                    limiter.acquire(len);
+                }
                 out.write(data, 0, len);
                 readBytes += len;
                 checkInterrupted();
             }
+            drained = true;
         } finally {
             close();
         }
@@ -300,6 +517,19 @@ public class HttpRequest implements Closeable, ProgressObservable {
         return this;
     }
 
+    private void readContentLength() {
+        try {
+            String field = conn.getHeaderField("Content-Length");
+            if (field != null) {
+                long len = Long.parseLong(field);
+                if (len >= 0) { // Let's just not deal with really big numbers
+                    contentLength = len;
+                }
+            }
+        } catch (NumberFormatException e) {
+        }
+    }
+
     @Override
     public double getProgress() {
         if (contentLength >= 0) {
@@ -314,9 +544,29 @@ public class HttpRequest implements Closeable, ProgressObservable {
         return null;
     }
 
+    /**
+     * Close the request. If the whole response was read, the connection is
+     * handed back to be reused by a later request to the same host; otherwise
+     * it is torn down.
+     *
+     * @throws IOException on I/O error
+     */
     @Override
     public void close() throws IOException {
-        if (conn != null) conn.disconnect();
+        synchronized (this) {
+            // A body that is cut short may be drained in the background, and
+            // closing again would wait for all of it to arrive
+            if (conn == null || closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        if (drained && inputStream != null) {
+            closeQuietly(inputStream);
+        } else {
+            conn.disconnect();
+        }
     }
 
     /**
@@ -387,6 +637,41 @@ public class HttpRequest implements Closeable, ProgressObservable {
         }
     }
 
+    /**
+     * Counts bytes towards the request's progress and stops reading when the
+     * thread is interrupted.
+     */
+    private class CountingInputStream extends FilterInputStream {
+        private boolean interrupted;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                readBytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (Thread.interrupted()) {
+                interrupted = true;
+                throw new InterruptedIOException();
+            }
+
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                readBytes += read;
+            }
+            return read;
+        }
+    }
+
     /**
      * Used with {@link #bodyForm(Form)}.
      */
@@ -477,7 +762,7 @@ public class HttpRequest implements Closeable, ProgressObservable {
          * @throws java.io.IOException on I/O error
          */
         public <T> T asJson(Class<T> cls) throws IOException {
-            return mapper.readValue(asString("UTF-8"), cls);
+            return mapper.readValue(data, cls);
         }
 
         /**
@@ -489,7 +774,7 @@ public class HttpRequest implements Closeable, ProgressObservable {
          * @throws java.io.IOException on I/O error
          */
         public <T> T asJson(TypeReference type) throws IOException {
-            return mapper.readValue(asString("UTF-8"), type);
+            return mapper.readValue(data, type);
         }
 
         /**
@@ -6,11 +6,17 @@
 
 package com.skcraft.launcher.util;
 
+import lombok.extern.java.Log;
+
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
 
+@Log
 public final class MorePaths {
 
     private MorePaths() {
@@ -36,6 +42,36 @@ public final class MorePaths {
         return false;
     }
 
+    /**
+     * Place a file at a new path by hard linking it, or by copying it if the
+     * file system can't link it. Linked files share their contents, so a
+     * file that may be changed in place should be copied instead.
+     *
+     * @param source the file
+     * @param target the new path, which is replaced if it exists
+     * @param link false to always copy
+     * @return true if the file was linked rather than copied
+     * @throws IOException on I/O error
+     */
+    public static boolean linkOrCopy(File source, File target, boolean link) throws IOException {
+        target.getParentFile().mkdirs();
+        target.delete();
+
+        if (link) {
+            try {
+                Files.createLink(target.toPath(), source.toPath());
+                return true;
+            } catch (UnsupportedOperationException e) {
+                log.log(Level.FINE, "Hard links are not supported, copying " + target.getName() + " instead", e);
+            } catch (IOException e) {
+                log.log(Level.FINE, "Failed to hard link " + target.getName() + ", copying instead", e);
+            }
+        }
+
+        Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return false;
+    }
+
     public static String relativize(File base, File child) {
         Path basePath = Paths.get(base.getAbsolutePath());
         Path childPath = Paths.get(child.getAbsolutePath());
@@ -84,7 +84,6 @@ public class TipList {
 						.get(tipsURL)
 						.execute()
 						.expectResponseCode(200)
-						.returnContent()
 						.asJson(TipInfoList.class);
 
 				if (tipInfos.getMinimumVersion()>TipInfoList.MIN_VERSION)
@@ -102,11 +102,21 @@ public abstract class AbstractLauncherDirectories implements LauncherDirectories
 		return new File(getBaseDir(), "launcher");
 	}
 
+	@Override
+	public File getRuntimesDir() {
+		return new File(getCommonDataDir(), "runtimes");
+	}
+
 	@Override
 	public File getAssetsDir() {
 		return new File(getCommonDataDir(), "assets");
 	}
 
+	@Override
+	public File getObjectsDir() {
+		return new File(getCommonDataDir(), "objects");
+	}
+
 	@Override
 	public File getLibrariesDir() {
 		return new File(getCommonDataDir(), "libraries");
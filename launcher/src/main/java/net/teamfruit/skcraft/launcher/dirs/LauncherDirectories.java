@@ -57,9 +57,9 @@ public interface LauncherDirectories {
 	File getInstallerDir();
 
 	/**
-	 * Get the directory to store temporary native files.
+	 * Get the directory to cache extracted native libraries in.
 	 *
-	 * @return the temporary native directory
+	 * @return the natives cache directory
 	 */
 	File getNativeDir();
 
@@ -103,6 +103,13 @@ public interface LauncherDirectories {
 	 */
 	File getLauncherBinariesDir();
 
+	/**
+	 * Get the directory to store Java runtimes managed by the launcher.
+	 *
+	 * @return the runtimes directory
+	 */
+	File getRuntimesDir();
+
 	/**
 	 * Get the directory to store assets.
 	 *
@@ -110,6 +117,14 @@ public interface LauncherDirectories {
 	 */
 	File getAssetsDir();
 
+	/**
+	 * Get the directory to store files shared between instances, named by
+	 * their hash.
+	 *
+	 * @return the objects directory
+	 */
+	File getObjectsDir();
+
 	/**
 	 * Get the directory to store libraries.
 	 *
@@ -91,7 +91,6 @@ public class RemoteSkinList {
 						.get(skinsURL)
 						.execute()
 						.expectResponseCode(200)
-						.returnContent()
 						.asJson(SkinInfoList.class);
 
 				if (skinInfoList.getMinimumVersion()>SkinInfoList.MIN_VERSION)